@@ -0,0 +1,349 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.spotify.sdk.benchmarks;
+
+import com.spotify.protocol.types.Album;
+import com.spotify.protocol.types.Artist;
+import com.spotify.protocol.types.ImageUri;
+import com.spotify.protocol.types.ListItem;
+import com.spotify.protocol.types.ListItems;
+import com.spotify.protocol.types.PlayerOptions;
+import com.spotify.protocol.types.PlayerRestrictions;
+import com.spotify.protocol.types.PlayerState;
+import com.spotify.protocol.types.Track;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Prototype compact binary encoding of {@link PlayerState} and {@link ListItems}.
+ *
+ * <p>Integers are varints, booleans are packed into flag bytes and every string is written once
+ * per message; repeats, such as an artist URI that is both the main and a featured artist, refer
+ * back to the first occurrence. Fields that may be null are preceded by a presence flag. Used to
+ * compare size and decode cost against JSON.
+ */
+final class CompactCodec {
+
+  static final byte VERSION = 2;
+
+  private CompactCodec() {}
+
+  static byte[] encode(PlayerState state) {
+    Writer out = new Writer();
+    out.writeByte(VERSION);
+    PlayerOptions options = state.playbackOptions;
+    PlayerRestrictions restrictions = state.playbackRestrictions;
+    out.writeByte(
+        flags(state.isPaused, state.track != null, options != null, restrictions != null));
+    out.writeFloat(state.playbackSpeed);
+    out.writeVarLong(state.playbackPosition);
+    if (options != null) {
+      out.writeByte(flags(options.isShuffling));
+      out.writeVarLong(options.repeatMode);
+    }
+    if (restrictions != null) {
+      out.writeByte(
+          flags(
+              restrictions.canSkipNext,
+              restrictions.canSkipPrev,
+              restrictions.canRepeatTrack,
+              restrictions.canRepeatContext,
+              restrictions.canToggleShuffle,
+              restrictions.canSeek));
+    }
+    if (state.track != null) {
+      writeTrack(out, state.track);
+    }
+    return out.toByteArray();
+  }
+
+  static PlayerState decodePlayerState(byte[] bytes) {
+    Reader in = new Reader(bytes);
+    checkVersion(in);
+    int flags = in.readByte();
+    float speed = in.readFloat();
+    long position = in.readVarLong();
+    PlayerOptions options = null;
+    if (isSet(flags, 2)) {
+      options = new PlayerOptions(isSet(in.readByte(), 0), (int) in.readVarLong());
+    }
+    PlayerRestrictions restrictions = null;
+    if (isSet(flags, 3)) {
+      int bits = in.readByte();
+      restrictions =
+          new PlayerRestrictions(
+              isSet(bits, 0),
+              isSet(bits, 1),
+              isSet(bits, 2),
+              isSet(bits, 3),
+              isSet(bits, 4),
+              isSet(bits, 5));
+    }
+    return new PlayerState(
+        isSet(flags, 1) ? readTrack(in) : null,
+        isSet(flags, 0),
+        speed,
+        position,
+        options,
+        restrictions);
+  }
+
+  static byte[] encode(ListItems page) {
+    Writer out = new Writer();
+    out.writeByte(VERSION);
+    out.writeVarLong(page.limit);
+    out.writeVarLong(page.offset);
+    out.writeVarLong(page.total);
+    out.writeVarLong(page.items.length);
+    for (ListItem item : page.items) {
+      out.writeString(item.id);
+      out.writeString(item.uri);
+      out.writeString(item.imageUri != null ? item.imageUri.raw : null);
+      out.writeString(item.title);
+      out.writeString(item.subtitle);
+      out.writeByte(flags(item.playable, item.hasChildren));
+    }
+    return out.toByteArray();
+  }
+
+  static ListItems decodeListItems(byte[] bytes) {
+    Reader in = new Reader(bytes);
+    checkVersion(in);
+    int limit = (int) in.readVarLong();
+    int offset = (int) in.readVarLong();
+    int total = (int) in.readVarLong();
+    ListItem[] items = new ListItem[(int) in.readVarLong()];
+    for (int i = 0; i < items.length; i++) {
+      String id = in.readString();
+      String uri = in.readString();
+      String image = in.readString();
+      String title = in.readString();
+      String subtitle = in.readString();
+      int flags = in.readByte();
+      items[i] =
+          new ListItem(
+              id,
+              uri,
+              image != null ? new ImageUri(image) : null,
+              title,
+              subtitle,
+              isSet(flags, 0),
+              isSet(flags, 1));
+    }
+    return new ListItems(limit, offset, total, items);
+  }
+
+  private static void writeTrack(Writer out, Track track) {
+    out.writeByte(
+        flags(
+            track.isEpisode,
+            track.isPodcast,
+            track.artist != null,
+            track.artists != null,
+            track.album != null));
+    if (track.artist != null) {
+      writeArtist(out, track.artist);
+    }
+    if (track.artists != null) {
+      out.writeVarLong(track.artists.size());
+      for (Artist artist : track.artists) {
+        writeArtist(out, artist);
+      }
+    }
+    if (track.album != null) {
+      out.writeString(track.album.name);
+      out.writeString(track.album.uri);
+    }
+    out.writeVarLong(track.duration);
+    out.writeString(track.name);
+    out.writeString(track.uri);
+    out.writeString(track.imageUri != null ? track.imageUri.raw : null);
+  }
+
+  private static Track readTrack(Reader in) {
+    int flags = in.readByte();
+    Artist artist = isSet(flags, 2) ? readArtist(in) : null;
+    List<Artist> artists = null;
+    if (isSet(flags, 3)) {
+      int artistCount = (int) in.readVarLong();
+      artists = new ArrayList<>(artistCount);
+      for (int i = 0; i < artistCount; i++) {
+        artists.add(readArtist(in));
+      }
+    }
+    Album album = isSet(flags, 4) ? new Album(in.readString(), in.readString()) : null;
+    long duration = in.readVarLong();
+    String name = in.readString();
+    String uri = in.readString();
+    String image = in.readString();
+    return new Track(
+        artist,
+        artists,
+        album,
+        duration,
+        name,
+        uri,
+        image != null ? new ImageUri(image) : null,
+        isSet(flags, 0),
+        isSet(flags, 1));
+  }
+
+  private static void writeArtist(Writer out, Artist artist) {
+    out.writeString(artist.name);
+    out.writeString(artist.uri);
+  }
+
+  private static Artist readArtist(Reader in) {
+    return new Artist(in.readString(), in.readString());
+  }
+
+  private static void checkVersion(Reader in) {
+    int version = in.readByte();
+    if (version != VERSION) {
+      throw new IllegalArgumentException("Unsupported version " + version);
+    }
+  }
+
+  private static int flags(boolean... values) {
+    int flags = 0;
+    for (int i = 0; i < values.length; i++) {
+      if (values[i]) {
+        flags |= 1 << i;
+      }
+    }
+    return flags;
+  }
+
+  private static boolean isSet(int flags, int bit) {
+    return (flags & (1 << bit)) != 0;
+  }
+
+  private static final class Writer {
+    private byte[] mBuffer = new byte[256];
+    private int mSize;
+    private final Map<String, Integer> mStrings = new HashMap<>();
+
+    void writeByte(int value) {
+      ensureCapacity(1);
+      mBuffer[mSize++] = (byte) value;
+    }
+
+    void writeFloat(float value) {
+      int bits = Float.floatToIntBits(value);
+      for (int shift = 24; shift >= 0; shift -= 8) {
+        writeByte(bits >>> shift);
+      }
+    }
+
+    void writeVarLong(long value) {
+      while ((value & ~0x7FL) != 0) {
+        writeByte((int) ((value & 0x7F) | 0x80));
+        value >>>= 7;
+      }
+      writeByte((int) value);
+    }
+
+    /** 0 is null, 1 is a new string that follows, n > 1 is the (n - 2)th string seen. */
+    void writeString(String value) {
+      if (value == null) {
+        writeVarLong(0);
+        return;
+      }
+      Integer index = mStrings.get(value);
+      if (index != null) {
+        writeVarLong(index + 2);
+        return;
+      }
+      mStrings.put(value, mStrings.size());
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      writeVarLong(1);
+      writeVarLong(bytes.length);
+      ensureCapacity(bytes.length);
+      System.arraycopy(bytes, 0, mBuffer, mSize, bytes.length);
+      mSize += bytes.length;
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(mBuffer, mSize);
+    }
+
+    private void ensureCapacity(int extra) {
+      if (mSize + extra > mBuffer.length) {
+        mBuffer = Arrays.copyOf(mBuffer, Math.max(mBuffer.length * 2, mSize + extra));
+      }
+    }
+  }
+
+  private static final class Reader {
+    private final byte[] mBuffer;
+    private int mPosition;
+    private final List<String> mStrings = new ArrayList<>();
+
+    Reader(byte[] buffer) {
+      mBuffer = buffer;
+    }
+
+    int readByte() {
+      return mBuffer[mPosition++] & 0xFF;
+    }
+
+    float readFloat() {
+      int bits = 0;
+      for (int i = 0; i < 4; i++) {
+        bits = (bits << 8) | readByte();
+      }
+      return Float.intBitsToFloat(bits);
+    }
+
+    long readVarLong() {
+      long value = 0;
+      int shift = 0;
+      int b;
+      do {
+        b = readByte();
+        value |= (long) (b & 0x7F) << shift;
+        shift += 7;
+      } while ((b & 0x80) != 0);
+      return value;
+    }
+
+    String readString() {
+      long tag = readVarLong();
+      if (tag == 0) {
+        return null;
+      } else if (tag > 1) {
+        return mStrings.get((int) (tag - 2));
+      }
+      int length = (int) readVarLong();
+      String value = new String(mBuffer, mPosition, length, StandardCharsets.UTF_8);
+      mPosition += length;
+      mStrings.add(value);
+      return value;
+    }
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.spotify.sdk.benchmarks;
+
+import com.spotify.protocol.mappers.JsonMapper;
+import com.spotify.protocol.mappers.JsonMappingException;
+import com.spotify.protocol.mappers.gson.GsonMapper;
+import com.spotify.protocol.types.ListItems;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/** Cost of a {@link ListItems} page as returned by {@code ContentApi}. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class ListItemsSerializationBenchmark {
+
+  @Param({"20", "200"})
+  public int pageSize;
+
+  private JsonMapper mMapper;
+  private ListItems mPage;
+  private String mMessage;
+
+  @Setup
+  public void setUp() throws JsonMappingException {
+    mMapper = GsonMapper.create();
+    mPage = Messages.listItemsPage(pageSize);
+    mMessage = Messages.envelope(mMapper.toJson(mPage));
+  }
+
+  @Benchmark
+  public String encode() throws JsonMappingException {
+    return mMapper.toJson(mPage);
+  }
+
+  @Benchmark
+  public ListItems decode() throws JsonMappingException {
+    return mMapper.toJsonArray(mMessage).getObjectAt(Messages.PAYLOAD_INDEX).getAs(ListItems.class);
+  }
+}
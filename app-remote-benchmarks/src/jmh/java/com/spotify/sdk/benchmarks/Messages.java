@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.spotify.sdk.benchmarks;
+
+import com.spotify.protocol.types.Album;
+import com.spotify.protocol.types.Artist;
+import com.spotify.protocol.types.ImageUri;
+import com.spotify.protocol.types.ListItem;
+import com.spotify.protocol.types.ListItems;
+import com.spotify.protocol.types.PlayerOptions;
+import com.spotify.protocol.types.PlayerRestrictions;
+import com.spotify.protocol.types.PlayerState;
+import com.spotify.protocol.types.Track;
+
+import java.util.Arrays;
+
+/** Representative protocol messages for the benchmarks. */
+final class Messages {
+
+  /** Index of the payload in {@link #envelope(String)}. */
+  static final int PAYLOAD_INDEX = 5;
+
+  private Messages() {}
+
+  /** Wraps a payload the way an event arrives from the Spotify app. */
+  static String envelope(String payloadJson) {
+    return "[36,1,1,{},[]," + payloadJson + "]";
+  }
+
+  /**
+   * A burst of player states as sent while a track plays: same track, advancing position, with a
+   * track change half way.
+   */
+  static PlayerState[] playerStateBurst(int size) {
+    PlayerState[] states = new PlayerState[size];
+    for (int i = 0; i < size; i++) {
+      states[i] =
+          new PlayerState(
+              track(i < size / 2 ? 0 : 1),
+              i % 10 == 9,
+              1f,
+              i * 1000L,
+              PlayerOptions.DEFAULT,
+              PlayerRestrictions.DEFAULT);
+    }
+    return states;
+  }
+
+  static Track track(int index) {
+    Artist artist = new Artist("Artist " + index, "spotify:artist:3WrFJ7ztbogyGnTHbHJFl" + index);
+    Artist featured =
+        new Artist("Featured " + index, "spotify:artist:0OdUWJ0sBjDrqHygGUXeC" + index);
+    return new Track(
+        artist,
+        Arrays.asList(artist, featured),
+        new Album("Album " + index, "spotify:album:4m2880jivSbbyEGAKfITC" + index),
+        215000L + index,
+        "Track name " + index,
+        "spotify:track:4IWZsfEkaK49itBwCTFDX" + index,
+        new ImageUri("spotify:image:ab67616d0000b273" + index + "e8b066f70c206551210d902b"),
+        false,
+        false);
+  }
+
+  static ListItems listItemsPage(int size) {
+    ListItem[] items = new ListItem[size];
+    for (int i = 0; i < size; i++) {
+      items[i] =
+          new ListItem(
+              "spotify:playlist:37i9dQZF1DX" + i,
+              "spotify:playlist:37i9dQZF1DX" + i,
+              new ImageUri("spotify:image:ab67706f00000003" + i + "e7c5f7b5a3e2d1c0b9a8f7e6"),
+              "Recommended playlist " + i,
+              "The best tracks for working out, updated every week " + i,
+              true,
+              false);
+    }
+    return new ListItems(size, 0, size * 4, items);
+  }
+}
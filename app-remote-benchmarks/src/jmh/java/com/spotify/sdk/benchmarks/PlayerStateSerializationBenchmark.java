@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.spotify.sdk.benchmarks;
+
+import com.spotify.protocol.mappers.JsonMapper;
+import com.spotify.protocol.mappers.JsonMappingException;
+import com.spotify.protocol.mappers.gson.GsonMapper;
+import com.spotify.protocol.types.PlayerState;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/** Cost of a single {@link PlayerState} event, measured over a burst of distinct states. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class PlayerStateSerializationBenchmark {
+
+  static final int BURST_SIZE = 50;
+
+  private JsonMapper mMapper;
+  private PlayerState[] mStates;
+  private String[] mMessages;
+
+  @Setup
+  public void setUp() throws JsonMappingException {
+    mMapper = GsonMapper.create();
+    mStates = Messages.playerStateBurst(BURST_SIZE);
+    mMessages = new String[BURST_SIZE];
+    for (int i = 0; i < BURST_SIZE; i++) {
+      mMessages[i] = Messages.envelope(mMapper.toJson(mStates[i]));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BURST_SIZE)
+  public void encode(Blackhole blackhole) throws JsonMappingException {
+    for (PlayerState state : mStates) {
+      blackhole.consume(mMapper.toJson(state));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BURST_SIZE)
+  public void decode(Blackhole blackhole) throws JsonMappingException {
+    for (String message : mMessages) {
+      blackhole.consume(
+          mMapper
+              .toJsonArray(message)
+              .getObjectAt(Messages.PAYLOAD_INDEX)
+              .getAs(PlayerState.class));
+    }
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.spotify.sdk.benchmarks;
+
+import com.spotify.protocol.mappers.JsonMapper;
+import com.spotify.protocol.mappers.JsonMappingException;
+import com.spotify.protocol.mappers.gson.GsonMapper;
+import com.spotify.protocol.types.ListItems;
+import com.spotify.protocol.types.PlayerState;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decode time of {@link CompactCodec} against JSON for the same messages. Run {@link #main} for
+ * the payload sizes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class WireFormatBenchmark {
+
+  /** A page of list items in both encodings, only used by the ListItems benchmarks. */
+  @State(Scope.Benchmark)
+  public static class ListItemsPage {
+
+    @Param({"20", "200"})
+    public int pageSize;
+
+    private JsonMapper mMapper;
+    private String mJson;
+    private byte[] mCompact;
+
+    @Setup
+    public void setUp() throws JsonMappingException {
+      mMapper = GsonMapper.create();
+      ListItems page = Messages.listItemsPage(pageSize);
+      mJson = Messages.envelope(mMapper.toJson(page));
+      mCompact = CompactCodec.encode(page);
+    }
+  }
+
+  private JsonMapper mMapper;
+  private String[] mPlayerStatesJson;
+  private byte[][] mPlayerStatesCompact;
+
+  @Setup
+  public void setUp() throws JsonMappingException {
+    mMapper = GsonMapper.create();
+    PlayerState[] states =
+        Messages.playerStateBurst(PlayerStateSerializationBenchmark.BURST_SIZE);
+    mPlayerStatesJson = new String[states.length];
+    mPlayerStatesCompact = new byte[states.length][];
+    for (int i = 0; i < states.length; i++) {
+      mPlayerStatesJson[i] = Messages.envelope(mMapper.toJson(states[i]));
+      mPlayerStatesCompact[i] = CompactCodec.encode(states[i]);
+    }
+  }
+
+  @Benchmark
+  public ListItems decodeListItemsJson(ListItemsPage page) throws JsonMappingException {
+    return page.mMapper
+        .toJsonArray(page.mJson)
+        .getObjectAt(Messages.PAYLOAD_INDEX)
+        .getAs(ListItems.class);
+  }
+
+  @Benchmark
+  public ListItems decodeListItemsCompact(ListItemsPage page) {
+    return CompactCodec.decodeListItems(page.mCompact);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(PlayerStateSerializationBenchmark.BURST_SIZE)
+  public void decodePlayerStateJson(Blackhole blackhole) throws JsonMappingException {
+    for (String message : mPlayerStatesJson) {
+      blackhole.consume(
+          mMapper
+              .toJsonArray(message)
+              .getObjectAt(Messages.PAYLOAD_INDEX)
+              .getAs(PlayerState.class));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(PlayerStateSerializationBenchmark.BURST_SIZE)
+  public void decodePlayerStateCompact(Blackhole blackhole) {
+    for (byte[] message : mPlayerStatesCompact) {
+      blackhole.consume(CompactCodec.decodePlayerState(message));
+    }
+  }
+
+  /** Prints the payload size of each message in both encodings. */
+  public static void main(String[] args) throws JsonMappingException {
+    JsonMapper mapper = GsonMapper.create();
+    PlayerState state = Messages.playerStateBurst(1)[0];
+    printSize("PlayerState", mapper.toJson(state), CompactCodec.encode(state));
+    for (int size : new int[] {20, 200}) {
+      ListItems page = Messages.listItemsPage(size);
+      printSize("ListItems(" + size + ")", mapper.toJson(page), CompactCodec.encode(page));
+    }
+  }
+
+  private static void printSize(String name, String json, byte[] compact) {
+    int jsonBytes = json.getBytes(StandardCharsets.UTF_8).length;
+    System.out.println(
+        String.format(
+            Locale.US,
+            "%-16s json=%6d bytes  compact=%6d bytes  (%.0f%%)",
+            name,
+            jsonBytes,
+            compact.length,
+            100.0 * compact.length / jsonBytes));
+  }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.spotify.sdk.demo;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.spotify.android.appremote.api.ConnectionParams;
+import com.spotify.android.appremote.api.SpotifyAppRemote;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * Application scoped connection to the Spotify app, shared by all activities.
+ *
+ * <p>The connection can be started at process start with {@link #prewarm()}. Activities {@link
+ * #acquire} it in {@code onStart} and {@link #release} it in {@code onStop}; once nothing holds it
+ * for {@link #DEFAULT_IDLE_TIMEOUT_MS} it is disconnected. While held, it is kept alive by a {@link
+ * ConnectionSupervisor}.
+ *
+ * <p>Not thread safe, use it from the main thread.
+ */
+public final class AppRemoteHolder {
+
+  private static final String TAG = AppRemoteHolder.class.getSimpleName();
+
+  public static final long DEFAULT_IDLE_TIMEOUT_MS = 30 * 1000;
+
+  private static AppRemoteHolder sInstance;
+
+  /** Creates the holder. Call it once, from {@code Application#onCreate}. */
+  public static AppRemoteHolder init(Context context, ConnectionParams connectionParams) {
+    if (sInstance == null) {
+      sInstance = new AppRemoteHolder(context, connectionParams);
+    }
+    return sInstance;
+  }
+
+  public static AppRemoteHolder get() {
+    if (sInstance == null) {
+      throw new IllegalStateException("AppRemoteHolder.init has not been called");
+    }
+    return sInstance;
+  }
+
+  private final Context mContext;
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+  private final List<ConnectionSupervisor.Listener> mClients = new ArrayList<>();
+
+  private ConnectionParams mConnectionParams;
+  private ConnectionSupervisor mSupervisor;
+  private long mIdleTimeoutMs = DEFAULT_IDLE_TIMEOUT_MS;
+
+  private long mConnectStartedAtMs = -1;
+  private long mConnectTimeMs = -1;
+  private long mFirstStateTimeMs = -1;
+
+  private final Runnable mIdleRunnable =
+      () -> {
+        Log.d(TAG, "Idle, disconnecting");
+        disconnect();
+      };
+
+  private final ConnectionSupervisor.Listener mSupervisorListener =
+      new ConnectionSupervisor.Listener() {
+        @Override
+        public void onConnected(SpotifyAppRemote appRemote) {
+          onSupervisorConnected(appRemote);
+          for (ConnectionSupervisor.Listener client : new ArrayList<>(mClients)) {
+            client.onConnected(appRemote);
+          }
+        }
+
+        @Override
+        public void onDisconnected(Throwable error, boolean reconnecting) {
+          for (ConnectionSupervisor.Listener client : new ArrayList<>(mClients)) {
+            client.onDisconnected(error, reconnecting);
+          }
+        }
+      };
+
+  private AppRemoteHolder(Context context, ConnectionParams connectionParams) {
+    mContext = context.getApplicationContext();
+    mConnectionParams = connectionParams;
+  }
+
+  public void setIdleTimeoutMs(long idleTimeoutMs) {
+    mIdleTimeoutMs = idleTimeoutMs;
+  }
+
+  /**
+   * Starts connecting ahead of the first {@link #acquire}. If nothing acquires the connection
+   * within the idle timeout, it is dropped again.
+   */
+  public void prewarm() {
+    ensureStarted();
+    if (mClients.isEmpty()) {
+      scheduleIdleDisconnect();
+    }
+  }
+
+  /**
+   * Connects with {@code connectionParams}. A connection that is already up is kept. An attempt
+   * that is still under way is started again if it uses other params, e.g. to show the auth view
+   * that {@link #prewarm()} left out, and retried right away if it is waiting out a backoff.
+   */
+  public void connect(ConnectionParams connectionParams) {
+    if (mSupervisor != null && mSupervisor.isStarted()) {
+      if (mSupervisor.isConnected()) {
+        return;
+      }
+      if (isSameConnection(connectionParams, mConnectionParams)) {
+        mSupervisor.retryNow();
+        return;
+      }
+      Log.d(TAG, "Connection params changed, connecting again");
+      mSupervisor.stop();
+    }
+    mConnectionParams = connectionParams;
+    mSupervisor = null;
+    ensureStarted();
+  }
+
+  /**
+   * Holds the connection until {@link #release} is called with the same client. The client is
+   * told about the current connection right away if there is one.
+   */
+  public void acquire(ConnectionSupervisor.Listener client) {
+    mHandler.removeCallbacks(mIdleRunnable);
+    if (!mClients.contains(client)) {
+      mClients.add(client);
+    }
+    ensureStarted();
+    SpotifyAppRemote appRemote = mSupervisor.getAppRemote();
+    if (appRemote != null) {
+      Log.d(TAG, "Reusing live connection, " + mClients.size() + " client(s)");
+      client.onConnected(appRemote);
+    }
+  }
+
+  public void release(ConnectionSupervisor.Listener client) {
+    mClients.remove(client);
+    if (mClients.isEmpty()) {
+      scheduleIdleDisconnect();
+    }
+  }
+
+  /** Disconnects right away. Clients are not notified. */
+  public void disconnect() {
+    mHandler.removeCallbacks(mIdleRunnable);
+    if (mSupervisor != null) {
+      mSupervisor.stop();
+      mSupervisor = null;
+    }
+  }
+
+  /** Returns the live connection, or {@code null} while disconnected. */
+  public SpotifyAppRemote getAppRemote() {
+    return mSupervisor != null ? mSupervisor.getAppRemote() : null;
+  }
+
+  public ConnectionSupervisor getSupervisor() {
+    return mSupervisor;
+  }
+
+  /**
+   * Time from starting to connect until connected. This covers binding the service, the
+   * hello/welcome handshake and authorization, which the SDK does not report separately.
+   */
+  public long getConnectTimeMs() {
+    return mConnectTimeMs;
+  }
+
+  /** Time from starting to connect until the first {@code PlayerState} arrived. */
+  public long getFirstStateTimeMs() {
+    return mFirstStateTimeMs;
+  }
+
+  private void ensureStarted() {
+    if (mSupervisor == null) {
+      mSupervisor = new ConnectionSupervisor(mContext, mConnectionParams, mSupervisorListener);
+    }
+    if (!mSupervisor.isStarted()) {
+      mConnectStartedAtMs = SystemClock.elapsedRealtime();
+      mConnectTimeMs = -1;
+      mFirstStateTimeMs = -1;
+      mSupervisor.start();
+    }
+  }
+
+  private static boolean isSameConnection(ConnectionParams a, ConnectionParams b) {
+    return a.shouldShowAuthView() == b.shouldShowAuthView()
+        && a.getAuthMethod() == b.getAuthMethod()
+        && Objects.equals(a.getClientId(), b.getClientId())
+        && Objects.equals(a.getRedirectUri(), b.getRedirectUri())
+        && Objects.equals(a.getRequiredFeatures(), b.getRequiredFeatures());
+  }
+
+  private void scheduleIdleDisconnect() {
+    mHandler.removeCallbacks(mIdleRunnable);
+    mHandler.postDelayed(mIdleRunnable, mIdleTimeoutMs);
+  }
+
+  private void onSupervisorConnected(SpotifyAppRemote appRemote) {
+    if (mConnectTimeMs >= 0) {
+      // Reconnected, ConnectionSupervisor keeps track of recovery times.
+      return;
+    }
+    final long startedAtMs = mConnectStartedAtMs;
+    mConnectTimeMs = SystemClock.elapsedRealtime() - startedAtMs;
+    appRemote
+        .getPlayerApi()
+        .getPlayerState()
+        .setResultCallback(
+            playerState -> {
+              if (startedAtMs != mConnectStartedAtMs) {
+                return;
+              }
+              mFirstStateTimeMs = SystemClock.elapsedRealtime() - startedAtMs;
+              Log.d(
+                  TAG,
+                  String.format(
+                      Locale.US,
+                      "Connected in %dms, first PlayerState after %dms",
+                      mConnectTimeMs,
+                      mFirstStateTimeMs));
+            });
+  }
+}
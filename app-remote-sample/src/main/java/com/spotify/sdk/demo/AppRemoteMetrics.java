@@ -0,0 +1,377 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.spotify.sdk.demo;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.spotify.protocol.client.CallResult;
+import com.spotify.protocol.client.ResultUtils;
+import com.spotify.protocol.client.Subscription;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Latency, error and event rate metrics for App Remote calls and subscriptions.
+ *
+ * <p>Calls are keyed by API method, e.g. {@code PlayerApi.play} or {@code ImagesApi.getImage}.
+ * For each method it keeps a latency histogram, the number of calls in flight and the errors by
+ * exception type. Subscriptions are keyed by topic and count events. Use {@link #export} to hand
+ * a snapshot to an {@link Exporter}.
+ *
+ * <p>Thread safe.
+ */
+public final class AppRemoteMetrics {
+
+  /** Upper bounds in milliseconds of the latency buckets. The last bucket is unbounded. */
+  static final long[] BUCKET_BOUNDS_MS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000};
+
+  private static final AppRemoteMetrics sInstance = new AppRemoteMetrics();
+
+  /** Receives snapshots of the metrics. */
+  public interface Exporter {
+    void export(List<CallStats> calls, List<EventStats> events);
+  }
+
+  /** Writes the metrics to logcat. */
+  public static final class LogcatExporter implements Exporter {
+    private final String mTag;
+
+    public LogcatExporter(String tag) {
+      mTag = tag;
+    }
+
+    @Override
+    public void export(List<CallStats> calls, List<EventStats> events) {
+      for (CallStats stats : calls) {
+        Log.d(mTag, stats.toString());
+      }
+      for (EventStats stats : events) {
+        Log.d(mTag, stats.toString());
+      }
+    }
+  }
+
+  /** Process wide instance. */
+  public static AppRemoteMetrics getInstance() {
+    return sInstance;
+  }
+
+  private final Map<String, CallStats> mCalls = new LinkedHashMap<>();
+  private final Map<String, EventStats> mEvents = new LinkedHashMap<>();
+
+  /**
+   * Records latency and outcome of {@code call} under {@code method}. Returns a result that
+   * completes with the outcome of {@code call}; set callbacks on the returned result, not on
+   * {@code call}.
+   */
+  public <T> CallResult<T> track(String method, CallResult<T> call) {
+    final CallStats stats = callStats(method);
+    final long start = SystemClock.elapsedRealtime();
+    stats.onStart();
+    final CallResult<T> result = CallResults.pending();
+    call.setResultCallback(
+            data -> {
+              stats.onEnd(SystemClock.elapsedRealtime() - start, null);
+              result.deliverResult(ResultUtils.createSuccessfulResult(data));
+            })
+        .setErrorCallback(
+            error -> {
+              stats.onEnd(SystemClock.elapsedRealtime() - start, error);
+              result.deliverError(error);
+            });
+    return result;
+  }
+
+  /** Like {@link #track(String, CallResult)}, but also records calls that throw when issued. */
+  public <T> CallResult<T> track(String method, RemoteCall<T> call) {
+    CallResult<T> issued;
+    try {
+      issued = call.call();
+    } catch (RuntimeException e) {
+      CallStats stats = callStats(method);
+      stats.onStart();
+      stats.onEnd(0, e);
+      throw e;
+    }
+    return track(method, issued);
+  }
+
+  /**
+   * Wraps {@code callback} so the events passing through it are counted under {@code topic}. The
+   * time to the first event is measured from this call, so wrap the callback when subscribing.
+   */
+  public <T> Subscription.EventCallback<T> trackEvents(
+      String topic, Subscription.EventCallback<T> callback) {
+    final EventStats stats = eventStats(topic);
+    final long subscribedAt = SystemClock.elapsedRealtime();
+    return new Subscription.EventCallback<T>() {
+      private boolean mFirst = true;
+
+      @Override
+      public void onEvent(T data) {
+        long now = SystemClock.elapsedRealtime();
+        stats.onEvent(now, mFirst ? now - subscribedAt : -1);
+        mFirst = false;
+        callback.onEvent(data);
+      }
+    };
+  }
+
+  /** Hands a snapshot of all metrics to {@code exporter}. */
+  public void export(Exporter exporter) {
+    List<CallStats> calls = new ArrayList<>();
+    List<EventStats> events = new ArrayList<>();
+    synchronized (this) {
+      for (CallStats stats : mCalls.values()) {
+        calls.add(stats.snapshot());
+      }
+      for (EventStats stats : mEvents.values()) {
+        events.add(stats.snapshot());
+      }
+    }
+    exporter.export(calls, events);
+  }
+
+  /** Returns a snapshot of the metrics of {@code method}, or {@code null} if it was not called. */
+  public synchronized CallStats getCallStats(String method) {
+    CallStats stats = mCalls.get(method);
+    return stats != null ? stats.snapshot() : null;
+  }
+
+  public synchronized void reset() {
+    mCalls.clear();
+    mEvents.clear();
+  }
+
+  private synchronized CallStats callStats(String method) {
+    CallStats stats = mCalls.get(method);
+    if (stats == null) {
+      stats = new CallStats(method);
+      mCalls.put(method, stats);
+    }
+    return stats;
+  }
+
+  private synchronized EventStats eventStats(String topic) {
+    EventStats stats = mEvents.get(topic);
+    if (stats == null) {
+      stats = new EventStats(topic);
+      mEvents.put(topic, stats);
+    }
+    return stats;
+  }
+
+  /** Metrics of one API method. */
+  public static final class CallStats {
+    private final String mMethod;
+    private final long[] mBuckets = new long[BUCKET_BOUNDS_MS.length + 1];
+    private final Map<String, Long> mErrors = new HashMap<>();
+    private long mCount;
+    private long mInFlight;
+    private long mErrorCount;
+    private long mTotalMs;
+    private long mMaxMs;
+
+    CallStats(String method) {
+      mMethod = method;
+    }
+
+    synchronized void onStart() {
+      mInFlight++;
+    }
+
+    synchronized void onEnd(long latencyMs, Throwable error) {
+      mInFlight--;
+      mCount++;
+      mTotalMs += latencyMs;
+      mMaxMs = Math.max(mMaxMs, latencyMs);
+      mBuckets[bucketOf(latencyMs)]++;
+      if (error != null) {
+        mErrorCount++;
+        String type = error.getClass().getSimpleName();
+        Long count = mErrors.get(type);
+        mErrors.put(type, count == null ? 1 : count + 1);
+      }
+    }
+
+    synchronized CallStats snapshot() {
+      CallStats copy = new CallStats(mMethod);
+      System.arraycopy(mBuckets, 0, copy.mBuckets, 0, mBuckets.length);
+      copy.mErrors.putAll(mErrors);
+      copy.mCount = mCount;
+      copy.mInFlight = mInFlight;
+      copy.mErrorCount = mErrorCount;
+      copy.mTotalMs = mTotalMs;
+      copy.mMaxMs = mMaxMs;
+      return copy;
+    }
+
+    public String getMethod() {
+      return mMethod;
+    }
+
+    /** Number of completed calls, successful or not. */
+    public synchronized long getCount() {
+      return mCount;
+    }
+
+    public synchronized long getInFlight() {
+      return mInFlight;
+    }
+
+    public synchronized long getErrorCount() {
+      return mErrorCount;
+    }
+
+    /** Error counts keyed by the simple name of the exception class. */
+    public synchronized Map<String, Long> getErrorsByType() {
+      return Collections.unmodifiableMap(new HashMap<>(mErrors));
+    }
+
+    /** Number of calls per bucket, the bounds are {@link #BUCKET_BOUNDS_MS}. */
+    public synchronized long[] getHistogram() {
+      return mBuckets.clone();
+    }
+
+    public synchronized long getMeanMs() {
+      return mCount > 0 ? mTotalMs / mCount : 0;
+    }
+
+    public synchronized long getMaxMs() {
+      return mMaxMs;
+    }
+
+    /**
+     * Estimates a latency percentile from the histogram, as the upper bound of the bucket holding
+     * it. Returns -1 when nothing was recorded.
+     */
+    public synchronized long getPercentileMs(double percentile) {
+      if (mCount == 0) {
+        return -1;
+      }
+      long rank = (long) Math.ceil(percentile / 100 * mCount);
+      long seen = 0;
+      for (int i = 0; i < mBuckets.length; i++) {
+        seen += mBuckets[i];
+        if (seen >= rank) {
+          return i < BUCKET_BOUNDS_MS.length ? BUCKET_BOUNDS_MS[i] : mMaxMs;
+        }
+      }
+      return mMaxMs;
+    }
+
+    @Override
+    public synchronized String toString() {
+      return String.format(
+          Locale.US,
+          "%s: count=%d inFlight=%d mean=%dms p50=%dms p95=%dms max=%dms errors=%s",
+          mMethod,
+          mCount,
+          mInFlight,
+          getMeanMs(),
+          getPercentileMs(50),
+          getPercentileMs(95),
+          mMaxMs,
+          mErrors);
+    }
+
+    private static int bucketOf(long latencyMs) {
+      for (int i = 0; i < BUCKET_BOUNDS_MS.length; i++) {
+        if (latencyMs <= BUCKET_BOUNDS_MS[i]) {
+          return i;
+        }
+      }
+      return BUCKET_BOUNDS_MS.length;
+    }
+  }
+
+  /** Metrics of one subscription topic. */
+  public static final class EventStats {
+    private final String mTopic;
+    private long mCount;
+    private long mFirstEventAtMs = -1;
+    private long mLastEventAtMs = -1;
+    private long mTimeToFirstEventMs = -1;
+
+    EventStats(String topic) {
+      mTopic = topic;
+    }
+
+    synchronized void onEvent(long nowMs, long timeToFirstEventMs) {
+      mCount++;
+      if (mFirstEventAtMs < 0) {
+        mFirstEventAtMs = nowMs;
+      }
+      mLastEventAtMs = nowMs;
+      if (timeToFirstEventMs >= 0 && mTimeToFirstEventMs < 0) {
+        mTimeToFirstEventMs = timeToFirstEventMs;
+      }
+    }
+
+    synchronized EventStats snapshot() {
+      EventStats copy = new EventStats(mTopic);
+      copy.mCount = mCount;
+      copy.mFirstEventAtMs = mFirstEventAtMs;
+      copy.mLastEventAtMs = mLastEventAtMs;
+      copy.mTimeToFirstEventMs = mTimeToFirstEventMs;
+      return copy;
+    }
+
+    public String getTopic() {
+      return mTopic;
+    }
+
+    public synchronized long getEventCount() {
+      return mCount;
+    }
+
+    /** Time from subscribing to the first event, or -1 if none arrived yet. */
+    public synchronized long getTimeToFirstEventMs() {
+      return mTimeToFirstEventMs;
+    }
+
+    /** Average events per second between the first and the last event. */
+    public synchronized double getEventsPerSecond() {
+      long spanMs = mLastEventAtMs - mFirstEventAtMs;
+      return mCount > 1 && spanMs > 0 ? (mCount - 1) * 1000.0 / spanMs : 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+      return String.format(
+          Locale.US,
+          "%s: events=%d rate=%.2f/s firstEvent=%dms",
+          mTopic,
+          mCount,
+          getEventsPerSecond(),
+          mTimeToFirstEventMs);
+    }
+  }
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.spotify.sdk.demo;
+
+import android.os.SystemClock;
+
+import com.spotify.android.appremote.api.ContentApi;
+import com.spotify.android.appremote.api.ImagesApi;
+import com.spotify.protocol.client.CallResult;
+import com.spotify.protocol.client.ResultUtils;
+import com.spotify.protocol.types.ImageUri;
+import com.spotify.protocol.types.ListItem;
+import com.spotify.protocol.types.ListItems;
+import com.spotify.protocol.types.PlayerContext;
+import com.spotify.protocol.types.Track;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Warms {@link CoverArtCache} with the cover art of the tracks around the current one.
+ *
+ * <p>The children of the current {@link PlayerContext} are loaded page by page through {@link
+ * ListItemsPageCache}. When the track changes, it is looked up in them and the art of its
+ * neighbours is prefetched, next tracks first, so that a skip in either direction finds its art on
+ * disk instead of waiting for a fresh {@code getImage} round-trip. Further pages are loaded while
+ * the track is not on the loaded ones yet, or its next neighbours are on the page after them.
+ * Prefetching runs under an IPC budget of a number of calls per time window and never competes
+ * with more than that.
+ *
+ * <p>The time from a track change to its art being shown is recorded in {@link AppRemoteMetrics}
+ * as {@code Artwork.prefetched} or {@code Artwork.notPrefetched}, depending on whether the art was
+ * prefetched. Skipping on before the art is shown counts as an error.
+ *
+ * <p>Not thread safe, use it from the main thread.
+ */
+public class ArtworkPrefetcher {
+
+  static final String METRIC_PREFETCHED = "Artwork.prefetched";
+  static final String METRIC_NOT_PREFETCHED = "Artwork.notPrefetched";
+
+  private static final int CONTEXT_PAGE_SIZE = 50;
+  private static final int MAX_CONTEXT_PAGES = 20;
+  private static final int MAX_REMEMBERED_IMAGES = 64;
+
+  private final CoverArtCache mCoverArtCache;
+  private final ListItemsPageCache mPageCache;
+  private final int mNeighbours;
+  private final int mMaxCalls;
+  private final long mWindowMs;
+
+  private final Set<String> mPrefetched = new LinkedHashSet<>();
+  private final List<ListItems> mContextPages = new ArrayList<>();
+  private ContentApi mContentApi;
+  private ListItem mContextItem;
+  private boolean mLoadingContextPage;
+  private ImagesApi mImagesApi;
+  private String mTrackUri;
+  private int mTargetSizePx;
+  private double mTokens;
+  private long mLastRefillMs;
+  private long mSkippedForBudget;
+
+  private String mPendingImage;
+  private CallResult<ImageUri> mPendingArtwork;
+
+  /**
+   * @param neighbours how many tracks to prefetch on each side of the current one
+   * @param maxCalls how many calls to the Spotify app prefetching may make per {@code windowMs}
+   */
+  public ArtworkPrefetcher(
+      CoverArtCache coverArtCache,
+      ListItemsPageCache pageCache,
+      int neighbours,
+      int maxCalls,
+      long windowMs) {
+    mCoverArtCache = coverArtCache;
+    mPageCache = pageCache;
+    mNeighbours = neighbours;
+    mMaxCalls = maxCalls;
+    mWindowMs = windowMs;
+    mTokens = maxCalls;
+    mLastRefillMs = SystemClock.elapsedRealtime();
+  }
+
+  /** Loads the tracks of {@code playerContext}, unless they are already known. */
+  public void onPlayerContextChanged(ContentApi contentApi, PlayerContext playerContext) {
+    if (playerContext == null || playerContext.uri == null || playerContext.uri.isEmpty()) {
+      mContextItem = null;
+      mContextPages.clear();
+      return;
+    }
+    if (mContextItem != null && playerContext.uri.equals(mContextItem.uri)) {
+      return;
+    }
+    mContentApi = contentApi;
+    mContextPages.clear();
+    mLoadingContextPage = false;
+    mContextItem =
+        new ListItem(
+            playerContext.uri,
+            playerContext.uri,
+            null,
+            playerContext.title,
+            playerContext.subtitle,
+            false,
+            true);
+    if (!loadNextContextPage()) {
+      // Cleared so the next event retries a context that was skipped.
+      mContextItem = null;
+    }
+  }
+
+  /**
+   * Starts timing the art of {@code track} and prefetches the art of its neighbours in the current
+   * context, for a view of {@code targetSizePx}.
+   */
+  public void onTrackChanged(ImagesApi imagesApi, Track track, int targetSizePx) {
+    if (mPendingArtwork != null) {
+      mPendingArtwork.deliverError(new CancellationException("Skipped before art was shown"));
+    }
+    mPendingImage = track.imageUri != null ? track.imageUri.raw : null;
+    mPendingArtwork = CallResults.pending();
+    AppRemoteMetrics.getInstance()
+        .track(
+            mPrefetched.contains(mPendingImage) ? METRIC_PREFETCHED : METRIC_NOT_PREFETCHED,
+            mPendingArtwork);
+
+    mImagesApi = imagesApi;
+    mTrackUri = track.uri;
+    mTargetSizePx = targetSizePx;
+    prefetchAroundCurrentTrack();
+  }
+
+  /** Stops timing the art of the current track, call it once the art is shown. */
+  public void onArtworkShown(ImageUri imageUri) {
+    if (mPendingArtwork != null && imageUri != null && imageUri.raw.equals(mPendingImage)) {
+      mPendingArtwork.deliverResult(ResultUtils.createSuccessfulResult(imageUri));
+      mPendingArtwork = null;
+    }
+  }
+
+  /** Number of prefetches that were not made because the IPC budget was used up. */
+  public long getSkippedForBudgetCount() {
+    return mSkippedForBudget;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        Locale.US,
+        "ArtworkPrefetcher{context=%s, tracks=%d, prefetched=%d, skippedForBudget=%d}",
+        mContextItem != null ? mContextItem.uri : null,
+        loadedTrackCount(),
+        mPrefetched.size(),
+        mSkippedForBudget);
+  }
+
+  private void prefetchAroundCurrentTrack() {
+    if (mContextItem == null || mTrackUri == null) {
+      return;
+    }
+    int index = indexOfCurrentTrack();
+    if (index < 0) {
+      // The track may be on a page that is not loaded yet; this runs again once it is.
+      loadNextContextPage();
+      return;
+    }
+    if (index + mNeighbours >= loadedTrackCount()) {
+      // The next neighbours are on the next page, if there is one.
+      loadNextContextPage();
+    }
+    for (int distance = 1; distance <= mNeighbours; distance++) {
+      prefetch(mImagesApi, trackAt(index + distance), mTargetSizePx);
+      prefetch(mImagesApi, trackAt(index - distance), mTargetSizePx);
+    }
+  }
+
+  /**
+   * Loads the page of the current context after the loaded ones, unless it is already loading or
+   * there is none. Returns false if the page is not loading.
+   */
+  private boolean loadNextContextPage() {
+    if (mLoadingContextPage) {
+      return true;
+    }
+    int offset = 0;
+    if (!mContextPages.isEmpty()) {
+      ListItems last = mContextPages.get(mContextPages.size() - 1);
+      if (last.items == null
+          || last.items.length < CONTEXT_PAGE_SIZE
+          || mContextPages.size() >= MAX_CONTEXT_PAGES) {
+        return false;
+      }
+      offset = last.offset + last.items.length;
+      if (last.total > 0 && offset >= last.total) {
+        return false;
+      }
+    }
+    if (!tryAcquire()) {
+      return false;
+    }
+    final ListItem contextItem = mContextItem;
+    mLoadingContextPage = true;
+    mPageCache
+        .getChildrenOfItem(
+            mContentApi, contextItem, CONTEXT_PAGE_SIZE, offset, CallScheduler.Priority.BACKGROUND)
+        .setResultCallback(
+            page -> {
+              if (contextItem == mContextItem) {
+                mLoadingContextPage = false;
+                mContextPages.add(page);
+                // The track usually changes before the tracks of its new context are known.
+                prefetchAroundCurrentTrack();
+              }
+            })
+        .setErrorCallback(
+            error -> {
+              if (contextItem == mContextItem) {
+                mLoadingContextPage = false;
+                if (mContextPages.isEmpty()) {
+                  mContextItem = null;
+                }
+              }
+            });
+    return true;
+  }
+
+  private void prefetch(ImagesApi imagesApi, ListItem track, int targetSizePx) {
+    if (track == null) {
+      return;
+    }
+    final ImageUri imageUri = track.imageUri;
+    if (imageUri == null || imageUri.raw == null || mPrefetched.contains(imageUri.raw)) {
+      return;
+    }
+    if (!tryAcquire()) {
+      return;
+    }
+    remember(imageUri.raw);
+    mCoverArtCache
+        .prefetch(imagesApi, imageUri, targetSizePx)
+        .setResultCallback(
+            fetched -> {
+              if (!fetched) {
+                // Already on disk, the call was never made.
+                refund();
+              }
+            })
+        .setErrorCallback(error -> mPrefetched.remove(imageUri.raw));
+  }
+
+  private void remember(String image) {
+    mPrefetched.add(image);
+    if (mPrefetched.size() > MAX_REMEMBERED_IMAGES) {
+      mPrefetched.remove(mPrefetched.iterator().next());
+    }
+  }
+
+  private boolean tryAcquire() {
+    long now = SystemClock.elapsedRealtime();
+    mTokens = Math.min(mMaxCalls, mTokens + (now - mLastRefillMs) * (double) mMaxCalls / mWindowMs);
+    mLastRefillMs = now;
+    if (mTokens < 1) {
+      mSkippedForBudget++;
+      return false;
+    }
+    mTokens--;
+    return true;
+  }
+
+  private void refund() {
+    mTokens = Math.min(mMaxCalls, mTokens + 1);
+  }
+
+  /** Index of the current track in the loaded tracks of the context, or -1. */
+  private int indexOfCurrentTrack() {
+    int index = 0;
+    for (ListItems page : mContextPages) {
+      if (page.items == null) {
+        continue;
+      }
+      for (ListItem item : page.items) {
+        if (mTrackUri.equals(item.uri)) {
+          return index;
+        }
+        index++;
+      }
+    }
+    return -1;
+  }
+
+  /** The track at {@code index} of the loaded tracks of the context, or null. */
+  private ListItem trackAt(int index) {
+    if (index < 0) {
+      return null;
+    }
+    for (ListItems page : mContextPages) {
+      if (page.items == null) {
+        continue;
+      }
+      if (index < page.items.length) {
+        return page.items[index];
+      }
+      index -= page.items.length;
+    }
+    return null;
+  }
+
+  private int loadedTrackCount() {
+    int count = 0;
+    for (ListItems page : mContextPages) {
+      count += page.items != null ? page.items.length : 0;
+    }
+    return count;
+  }
+}
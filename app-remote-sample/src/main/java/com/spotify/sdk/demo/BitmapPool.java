@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.spotify.sdk.demo;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Bitmaps that are no longer displayed, kept for {@link BitmapFactory.Options#inBitmap}.
+ *
+ * <p>Decoding into a pooled bitmap avoids allocating (and later collecting) a new pixel buffer for
+ * every cover art, which adds up quickly in grids. A pooled bitmap can hold any image whose pixels
+ * fit in its allocation, regardless of its current size or config. The pool is bounded by byte
+ * count and drops the oldest bitmaps first.
+ *
+ * <p>Only put bitmaps back that nothing else still draws.
+ */
+public class BitmapPool {
+
+  private final long mMaxBytes;
+  private final List<Bitmap> mBitmaps = new ArrayList<>();
+  private long mBytes;
+  private int mReused;
+  private int mMissed;
+
+  public BitmapPool(long maxBytes) {
+    mMaxBytes = maxBytes;
+  }
+
+  /**
+   * Removes and returns the smallest pooled bitmap that can hold a {@code width} by {@code height}
+   * image in {@code config}, or {@code null} if there is none.
+   */
+  public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+    long needed = (long) width * height * bytesPerPixel(config);
+    int best = -1;
+    for (int i = 0; i < mBitmaps.size(); i++) {
+      int size = mBitmaps.get(i).getAllocationByteCount();
+      if (size >= needed && (best < 0 || size < mBitmaps.get(best).getAllocationByteCount())) {
+        best = i;
+      }
+    }
+    if (best < 0) {
+      mMissed++;
+      return null;
+    }
+    mReused++;
+    Bitmap bitmap = mBitmaps.remove(best);
+    mBytes -= bitmap.getAllocationByteCount();
+    return bitmap;
+  }
+
+  /** Returns {@code bitmap} to the pool. Immutable and recycled bitmaps are ignored. */
+  public synchronized void put(Bitmap bitmap) {
+    if (bitmap == null
+        || !bitmap.isMutable()
+        || bitmap.isRecycled()
+        || bitmap.getAllocationByteCount() > mMaxBytes
+        || mBitmaps.contains(bitmap)) {
+      return;
+    }
+    mBitmaps.add(bitmap);
+    mBytes += bitmap.getAllocationByteCount();
+    while (mBytes > mMaxBytes) {
+      mBytes -= mBitmaps.remove(0).getAllocationByteCount();
+    }
+  }
+
+  public synchronized void clear() {
+    mBitmaps.clear();
+    mBytes = 0;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format(
+        Locale.US,
+        "BitmapPool{bitmaps=%d, bytes=%d/%d, reused=%d, missed=%d}",
+        mBitmaps.size(),
+        mBytes,
+        mMaxBytes,
+        mReused,
+        mMissed);
+  }
+
+  static int bytesPerPixel(Bitmap.Config config) {
+    switch (config) {
+      case ALPHA_8:
+        return 1;
+      case RGB_565:
+      case ARGB_4444:
+        return 2;
+      default:
+        return 4;
+    }
+  }
+}
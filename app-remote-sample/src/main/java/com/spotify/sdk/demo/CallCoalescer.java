@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.spotify.sdk.demo;
+
+import android.graphics.Bitmap;
+
+import com.spotify.android.appremote.api.ImagesApi;
+import com.spotify.android.appremote.api.PlayerApi;
+import com.spotify.android.appremote.api.UserApi;
+import com.spotify.protocol.client.CallResult;
+import com.spotify.protocol.client.ResultUtils;
+import com.spotify.protocol.types.Image;
+import com.spotify.protocol.types.ImageUri;
+import com.spotify.protocol.types.LibraryState;
+import com.spotify.protocol.types.PlayerState;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shares one in-flight call between concurrent identical requests.
+ *
+ * <p>While a call for a key is outstanding, further requests for the same key do not go over IPC.
+ * They are attached to the outstanding call and all callers get the same result or error. Once
+ * the call completes the key is released, so the next request is a fresh call.
+ */
+public class CallCoalescer {
+
+  /** Image reads are hedged, and fail after this long. */
+  private static final long IMAGE_DEADLINE_MS = 5000;
+
+  /**
+   * Every other call fails after this long, so a lost reply does not keep its key in flight and
+   * every later request for it waiting.
+   */
+  private static final long DEFAULT_DEADLINE_MS = 10000;
+
+  private final Map<String, InFlight<?>> mInFlight = new HashMap<>();
+  private final AtomicLong mIssued = new AtomicLong();
+  private final AtomicLong mCoalesced = new AtomicLong();
+
+  /**
+   * Returns the result of {@code call}, or of an identical call that is already in flight.
+   *
+   * @param key identifies the request, two calls with the same key must be interchangeable. The
+   *     part before the first {@code ':'} names the method in {@link AppRemoteMetrics}.
+   */
+  public <T> CallResult<T> call(String key, RemoteCall<T> call) {
+    int separator = key.indexOf(':');
+    return call(separator < 0 ? key : key.substring(0, separator), key, call);
+  }
+
+  /**
+   * Like {@link #call(String, RemoteCall)}, with the method name for {@link AppRemoteMetrics}
+   * given separately from the key.
+   */
+  public <T> CallResult<T> call(String method, String key, RemoteCall<T> call) {
+    return call(method, key, CallScheduler.Priority.VISIBLE, call);
+  }
+
+  /**
+   * Like {@link #call(String, String, RemoteCall)}, issued through {@link CallScheduler} with
+   * {@code priority}. A request that joins a waiting call with a lower priority promotes it.
+   */
+  @SuppressWarnings("unchecked")
+  public <T> CallResult<T> call(
+      String method, String key, CallScheduler.Priority priority, RemoteCall<T> call) {
+    CallResult<T> result = CallResults.pending();
+    InFlight<T> inFlight;
+    boolean issue;
+    CallResult<T> promote = null;
+    synchronized (mInFlight) {
+      inFlight = (InFlight<T>) mInFlight.get(key);
+      issue = inFlight == null;
+      if (issue) {
+        inFlight = new InFlight<>(priority);
+        mInFlight.put(key, inFlight);
+      } else if (priority.ordinal() < inFlight.mPriority.ordinal()) {
+        inFlight.mPriority = priority;
+        promote = inFlight.mScheduled;
+      }
+      inFlight.mWaiters.add(result);
+    }
+
+    if (!issue) {
+      mCoalesced.incrementAndGet();
+      if (promote != null) {
+        CallScheduler.getInstance().promote(promote, priority);
+      }
+      return result;
+    }
+
+    mIssued.incrementAndGet();
+    final InFlight<T> issued = inFlight;
+    // Latency is recorded from when the call is issued, so it does not include the wait.
+    CallResult<T> scheduled =
+        CallScheduler.getInstance()
+            .schedule(
+                priority,
+                () ->
+                    // Inside the tracking, so a call that times out is recorded as failed.
+                    AppRemoteMetrics.getInstance()
+                        .track(
+                            method,
+                            () -> CallDeadlines.withDeadline(call.call(), DEFAULT_DEADLINE_MS)));
+    synchronized (mInFlight) {
+      issued.mScheduled = scheduled;
+    }
+    scheduled
+        .setResultCallback(data -> complete(key, issued, data, null))
+        .setErrorCallback(error -> complete(key, issued, null, error));
+    return result;
+  }
+
+  public CallResult<PlayerState> getPlayerState(PlayerApi playerApi) {
+    // Player commands wait for it.
+    return call(
+        "PlayerApi.getPlayerState",
+        "PlayerApi.getPlayerState",
+        CallScheduler.Priority.INTERACTIVE,
+        playerApi::getPlayerState);
+  }
+
+  public CallResult<LibraryState> getLibraryState(UserApi userApi, String uri) {
+    return getLibraryState(userApi, uri, CallScheduler.Priority.BACKGROUND);
+  }
+
+  public CallResult<LibraryState> getLibraryState(
+      UserApi userApi, String uri, CallScheduler.Priority priority) {
+    return call(
+        "UserApi.getLibraryState",
+        "UserApi.getLibraryState:" + uri,
+        priority,
+        () -> userApi.getLibraryState(uri));
+  }
+
+  public CallResult<Bitmap> getImage(
+      ImagesApi imagesApi, ImageUri imageUri, Image.Dimension dimension) {
+    return getImage(imagesApi, imageUri, dimension, CallScheduler.Priority.VISIBLE);
+  }
+
+  public CallResult<Bitmap> getImage(
+      ImagesApi imagesApi,
+      ImageUri imageUri,
+      Image.Dimension dimension,
+      CallScheduler.Priority priority) {
+    return call(
+        "ImagesApi.getImage",
+        "ImagesApi.getImage:" + imageUri.raw + ":" + dimension.getValue(),
+        priority,
+        () ->
+            CallDeadlines.hedged(
+                "ImagesApi.getImage",
+                () -> imagesApi.getImage(imageUri, dimension),
+                IMAGE_DEADLINE_MS));
+  }
+
+  /** Number of calls that actually went to the Spotify app. */
+  public long getIssuedCount() {
+    return mIssued.get();
+  }
+
+  /** Number of requests that were served by a call already in flight. */
+  public long getCoalescedCount() {
+    return mCoalesced.get();
+  }
+
+  private <T> void complete(String key, InFlight<T> inFlight, T data, Throwable error) {
+    List<CallResult<T>> waiters;
+    synchronized (mInFlight) {
+      if (mInFlight.get(key) == inFlight) {
+        mInFlight.remove(key);
+      }
+      waiters = new ArrayList<>(inFlight.mWaiters);
+      inFlight.mWaiters.clear();
+    }
+    for (CallResult<T> waiter : waiters) {
+      if (error != null) {
+        waiter.deliverError(error);
+      } else {
+        waiter.deliverResult(ResultUtils.createSuccessfulResult(data));
+      }
+    }
+  }
+
+  private static class InFlight<T> {
+    final List<CallResult<T>> mWaiters = new ArrayList<>();
+    CallScheduler.Priority mPriority;
+    CallResult<T> mScheduled;
+
+    InFlight(CallScheduler.Priority priority) {
+      mPriority = priority;
+    }
+  }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.spotify.sdk.demo;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.spotify.protocol.client.CallResult;
+import com.spotify.protocol.client.ResultUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Deadlines and hedged retries for App Remote calls.
+ *
+ * <p>A call to a busy Spotify app can take seconds or never complete. {@link #withDeadline} fails
+ * such a call with a {@link TimeoutException} and cancels it. For idempotent reads, {@link
+ * #hedged} also issues a second attempt once the first one has taken longer than the 95th
+ * percentile latency of the method, and uses whichever completes first.
+ */
+public final class CallDeadlines {
+
+  /** Hedge delay used until a method has enough samples for a percentile. */
+  static final long DEFAULT_HEDGE_DELAY_MS = 300;
+
+  static final long MIN_HEDGE_DELAY_MS = 20;
+  static final int MIN_SAMPLES_FOR_PERCENTILE = 20;
+
+  private static final Handler sHandler = new Handler(Looper.getMainLooper());
+
+  private CallDeadlines() {}
+
+  /**
+   * Returns a result that completes with the outcome of {@code call}, or fails with a {@link
+   * TimeoutException} after {@code deadlineMs}, in which case {@code call} is cancelled.
+   */
+  public static <T> CallResult<T> withDeadline(CallResult<T> call, long deadlineMs) {
+    Race<T> race = new Race<>(null, deadlineMs, false);
+    race.add(call);
+    return race.mResult;
+  }
+
+  /**
+   * Issues {@code call}, and a second time if the first attempt has not completed after the 95th
+   * percentile latency of {@code method} in {@link AppRemoteMetrics}. The first successful attempt
+   * wins and the other one is cancelled. Fails with a {@link TimeoutException} after {@code
+   * deadlineMs}, or with the last error if both attempts fail. Only use it for idempotent calls.
+   */
+  public static <T> CallResult<T> hedged(String method, RemoteCall<T> call, long deadlineMs) {
+    long hedgeDelayMs = getHedgeDelayMs(method);
+    Race<T> race = new Race<>(call, deadlineMs, hedgeDelayMs < deadlineMs);
+    if (race.mHedge != null) {
+      sHandler.postDelayed(race.mHedge, hedgeDelayMs);
+    }
+    race.issue();
+    return race.mResult;
+  }
+
+  /** Delay before the hedged attempt of {@code method}. */
+  static long getHedgeDelayMs(String method) {
+    AppRemoteMetrics.CallStats stats = AppRemoteMetrics.getInstance().getCallStats(method);
+    if (stats == null || stats.getCount() < MIN_SAMPLES_FOR_PERCENTILE) {
+      return DEFAULT_HEDGE_DELAY_MS;
+    }
+    return Math.max(MIN_HEDGE_DELAY_MS, stats.getPercentileMs(95));
+  }
+
+  /** Attempts of one call, of which the first to succeed completes the result. */
+  private static final class Race<T> {
+    final CallResult<T> mResult = CallResults.pending();
+    final List<CallResult<T>> mAttempts = new ArrayList<>();
+    final Runnable mTimeout = this::onTimeout;
+    /** Starts the second attempt, or {@code null} if the call is not hedged. */
+    final Runnable mHedge;
+    /** {@code null} for a call that was already issued, see {@link #withDeadline}. */
+    private final RemoteCall<T> mCall;
+    int mFailed;
+    boolean mHedgeStarted;
+    boolean mDone;
+
+    Race(RemoteCall<T> call, long deadlineMs, boolean hedge) {
+      mCall = call;
+      mHedge = hedge ? this::onHedgeDelay : null;
+      sHandler.postDelayed(mTimeout, deadlineMs);
+    }
+
+    void issue() {
+      CallResult<T> attempt;
+      try {
+        attempt = mCall.call();
+      } catch (RuntimeException e) {
+        onError(e);
+        return;
+      }
+      add(attempt);
+    }
+
+    void add(CallResult<T> attempt) {
+      synchronized (this) {
+        if (mDone) {
+          attempt.cancel();
+          return;
+        }
+        mAttempts.add(attempt);
+      }
+      attempt
+          .setResultCallback(data -> onResult(attempt, data))
+          .setErrorCallback(this::onError);
+    }
+
+    private void onResult(CallResult<T> winner, T data) {
+      if (!finish(winner)) {
+        return;
+      }
+      mResult.deliverResult(ResultUtils.createSuccessfulResult(data));
+    }
+
+    private void onHedgeDelay() {
+      synchronized (this) {
+        if (mHedgeStarted || mDone) {
+          return;
+        }
+        mHedgeStarted = true;
+      }
+      issue();
+    }
+
+    private void onError(Throwable error) {
+      boolean hedgeNow;
+      synchronized (this) {
+        mFailed++;
+        // Marked here, so the hedge runs at most once even if its delay is up at the same time.
+        hedgeNow = mHedge != null && !mHedgeStarted && !mDone;
+        if (hedgeNow) {
+          mHedgeStarted = true;
+        } else if (mFailed < (mHedgeStarted ? 2 : 1)) {
+          // The other attempt may still succeed.
+          return;
+        }
+      }
+      if (hedgeNow) {
+        // No point in waiting for the hedge delay once the first attempt has failed.
+        sHandler.removeCallbacks(mHedge);
+        issue();
+        return;
+      }
+      if (finish(null)) {
+        mResult.deliverError(error);
+      }
+    }
+
+    private void onTimeout() {
+      if (finish(null)) {
+        mResult.deliverError(new TimeoutException("Call did not complete in time"));
+      }
+    }
+
+    /** Marks the race done and cancels every attempt but {@code winner}. */
+    private boolean finish(CallResult<T> winner) {
+      List<CallResult<T>> losers;
+      synchronized (this) {
+        if (mDone) {
+          return false;
+        }
+        mDone = true;
+        losers = new ArrayList<>(mAttempts);
+      }
+      sHandler.removeCallbacks(mTimeout);
+      if (mHedge != null) {
+        sHandler.removeCallbacks(mHedge);
+      }
+      for (CallResult<T> attempt : losers) {
+        if (attempt != null && attempt != winner && !attempt.isCanceled()) {
+          attempt.cancel();
+        }
+      }
+      return true;
+    }
+  }
+}
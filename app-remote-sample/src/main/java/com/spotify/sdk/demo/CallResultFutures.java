@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.spotify.sdk.demo;
+
+import androidx.annotation.RequiresApi;
+
+import com.spotify.protocol.client.CallResult;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * {@link CompletableFuture} adapter for {@link CallResult}, for composing calls without callbacks
+ * or blocking {@code await}. Cancelling the future cancels the call.
+ */
+@RequiresApi(24)
+public final class CallResultFutures {
+
+  private CallResultFutures() {}
+
+  /**
+   * Returns a future that completes with the outcome of {@code call}. Sets the result and error
+   * callbacks of {@code call}, so do not set them yourself.
+   */
+  public static <T> CompletableFuture<T> toFuture(CallResult<T> call) {
+    CallFuture<T> future = new CallFuture<>(call);
+    call.setResultCallback(future::complete).setErrorCallback(future::completeExceptionally);
+    return future;
+  }
+
+  private static final class CallFuture<T> extends CompletableFuture<T> {
+    private final CallResult<T> mCall;
+
+    CallFuture(CallResult<T> call) {
+      mCall = call;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      boolean cancelled = super.cancel(mayInterruptIfRunning);
+      if (cancelled) {
+        mCall.cancel();
+      }
+      return cancelled;
+    }
+  }
+}
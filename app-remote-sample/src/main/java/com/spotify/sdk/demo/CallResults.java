@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.spotify.sdk.demo;
+
+import com.spotify.protocol.client.CallResult;
+import com.spotify.protocol.client.ResultUtils;
+import com.spotify.protocol.types.Types;
+
+/**
+ * Helpers for creating {@link CallResult}s that are completed locally instead of by a round-trip
+ * to the Spotify app.
+ *
+ * <p>A {@link CallResult} remembers its result, so callbacks set after completion are still
+ * invoked. This makes it possible to hand out results from caches with the same API as a real
+ * call.
+ */
+public final class CallResults {
+
+  private CallResults() {}
+
+  /** Returns a result that is completed later with {@link CallResult#deliverResult}. */
+  public static <T> CallResult<T> pending() {
+    return new CallResult<>(Types.RequestId.NONE);
+  }
+
+  /** Returns a result that is already completed with {@code data}. */
+  public static <T> CallResult<T> completed(T data) {
+    CallResult<T> result = pending();
+    result.deliverResult(ResultUtils.createSuccessfulResult(data));
+    return result;
+  }
+
+  /** Returns a result that has already failed with {@code error}. */
+  public static <T> CallResult<T> failed(Throwable error) {
+    CallResult<T> result = pending();
+    result.deliverError(error);
+    return result;
+  }
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.spotify.sdk.demo;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.spotify.protocol.client.CallResult;
+import com.spotify.protocol.client.ResultUtils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Orders App Remote calls by priority, with a concurrency and rate limit per priority.
+ *
+ * <p>All calls share one connection to the Spotify app, which answers them in order. A burst of
+ * thumbnail loads or library checks in front of a play/pause tap therefore delays the tap by all
+ * of their round-trips. The scheduler keeps that queue short: every {@link Priority} has its own
+ * limit on calls in flight and calls per second, and waiting calls are issued highest priority
+ * first. {@link Priority#BACKGROUND} calls also hold back entirely while an {@link
+ * Priority#INTERACTIVE} call is in flight.
+ *
+ * <p>A call holds its slot until it completes, or for at most {@link #SLOT_TIMEOUT_MS} so that a
+ * call that never completes does not stall its priority. A call whose result is canceled while it
+ * is waiting is dropped without being issued.
+ */
+public class CallScheduler {
+
+  public enum Priority {
+    /** A direct response to user input, such as a player command. */
+    INTERACTIVE,
+    /** Data for what is on screen, such as the current cover art. */
+    VISIBLE,
+    /** Work the user is not waiting for, such as prefetches and library checks. */
+    BACKGROUND
+  }
+
+  static final long SLOT_TIMEOUT_MS = 10000;
+
+  private static final CallScheduler sInstance = new CallScheduler();
+
+  private static final class Task<T> {
+    final RemoteCall<T> mCall;
+    final CallResult<T> mResult = CallResults.pending();
+    final long mEnqueuedAtMs = SystemClock.elapsedRealtime();
+    Lane mLane;
+    Runnable mTimeout;
+    boolean mReleased;
+
+    Task(RemoteCall<T> call, Lane lane) {
+      mCall = call;
+      mLane = lane;
+    }
+  }
+
+  private static final class Lane {
+    final Priority mPriority;
+    final ArrayDeque<Task<?>> mQueue = new ArrayDeque<>();
+    int mMaxInFlight;
+    double mMaxPerSecond;
+    int mInFlight;
+    double mTokens;
+    long mLastRefillMs;
+    long mIssued;
+    long mWaitSumMs;
+    long mMaxWaitMs;
+
+    Lane(Priority priority, int maxInFlight, double maxPerSecond) {
+      mPriority = priority;
+      setLimits(maxInFlight, maxPerSecond);
+    }
+
+    void setLimits(int maxInFlight, double maxPerSecond) {
+      mMaxInFlight = maxInFlight;
+      mMaxPerSecond = maxPerSecond;
+      mTokens = Math.max(1, maxPerSecond);
+      mLastRefillMs = SystemClock.elapsedRealtime();
+    }
+
+    /** Takes a token and returns 0, or returns how long until the next token. */
+    long tryAcquire(long now) {
+      if (mMaxPerSecond <= 0) {
+        return 0;
+      }
+      double capacity = Math.max(1, mMaxPerSecond);
+      mTokens = Math.min(capacity, mTokens + (now - mLastRefillMs) * mMaxPerSecond / 1000);
+      mLastRefillMs = now;
+      if (mTokens >= 1) {
+        mTokens--;
+        return 0;
+      }
+      return (long) Math.ceil((1 - mTokens) * 1000 / mMaxPerSecond);
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US,
+          "%s{queued=%d, inFlight=%d/%d, issued=%d, meanWaitMs=%d, maxWaitMs=%d}",
+          mPriority,
+          mQueue.size(),
+          mInFlight,
+          mMaxInFlight,
+          mIssued,
+          mIssued > 0 ? mWaitSumMs / mIssued : 0,
+          mMaxWaitMs);
+    }
+  }
+
+  private final Lane[] mLanes = {
+    new Lane(Priority.INTERACTIVE, 4, 0),
+    new Lane(Priority.VISIBLE, 4, 20),
+    new Lane(Priority.BACKGROUND, 2, 5)
+  };
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+  private final Runnable mDrainRunnable =
+      () -> {
+        synchronized (this) {
+          mDrainAtMs = Long.MAX_VALUE;
+        }
+        drain();
+      };
+  private long mDrainAtMs = Long.MAX_VALUE;
+
+  /** Process wide instance, shared by everything that talks to the Spotify app. */
+  public static CallScheduler getInstance() {
+    return sInstance;
+  }
+
+  /**
+   * Issues {@code call} once its priority has a free slot and no higher priority call is waiting.
+   * Returns a result that completes with the outcome of the call.
+   */
+  public <T> CallResult<T> schedule(Priority priority, RemoteCall<T> call) {
+    Task<T> task;
+    synchronized (this) {
+      task = new Task<>(call, mLanes[priority.ordinal()]);
+      task.mLane.mQueue.add(task);
+    }
+    drain();
+    return task.mResult;
+  }
+
+  /**
+   * Like {@link #schedule(Priority, RemoteCall)}, recorded in {@link AppRemoteMetrics} under
+   * {@code method}. Latency is recorded from when the call is issued, not including the time spent
+   * waiting, so it is comparable with calls made directly and usable for hedge delays.
+   */
+  public <T> CallResult<T> schedule(Priority priority, String method, RemoteCall<T> call) {
+    return schedule(priority, () -> AppRemoteMetrics.getInstance().track(method, call));
+  }
+
+  /**
+   * Moves a call that is still waiting up to {@code priority}, e.g. when something on screen now
+   * needs what was prefetched in the background. Does nothing if the call was already issued or
+   * already has that priority or a higher one.
+   *
+   * @param scheduled a result returned by {@link #schedule(Priority, RemoteCall)}
+   */
+  public void promote(CallResult<?> scheduled, Priority priority) {
+    synchronized (this) {
+      Lane target = mLanes[priority.ordinal()];
+      for (int i = priority.ordinal() + 1; i < mLanes.length; i++) {
+        Iterator<Task<?>> it = mLanes[i].mQueue.iterator();
+        while (it.hasNext()) {
+          Task<?> task = it.next();
+          if (task.mResult == scheduled) {
+            it.remove();
+            task.mLane = target;
+            target.mQueue.add(task);
+            break;
+          }
+        }
+      }
+    }
+    drain();
+  }
+
+  /**
+   * Changes the limits of {@code priority}.
+   *
+   * @param maxInFlight calls of this priority that may be in flight at once
+   * @param maxPerSecond calls of this priority that may be issued per second, 0 for no limit
+   */
+  public void setLimits(Priority priority, int maxInFlight, double maxPerSecond) {
+    if (maxInFlight < 1) {
+      throw new IllegalArgumentException("maxInFlight must be at least 1");
+    }
+    synchronized (this) {
+      mLanes[priority.ordinal()].setLimits(maxInFlight, maxPerSecond);
+    }
+    drain();
+  }
+
+  @Override
+  public synchronized String toString() {
+    StringBuilder sb = new StringBuilder("CallScheduler{");
+    for (Lane lane : mLanes) {
+      sb.append(' ').append(lane);
+    }
+    return sb.append(" }").toString();
+  }
+
+  private void drain() {
+    List<Task<?>> ready = new ArrayList<>();
+    synchronized (this) {
+      long now = SystemClock.elapsedRealtime();
+      long retryInMs = Long.MAX_VALUE;
+      for (Lane lane : mLanes) {
+        while (!lane.mQueue.isEmpty() && lane.mInFlight < lane.mMaxInFlight) {
+          if (lane.mQueue.peek().mResult.isCanceled()) {
+            lane.mQueue.remove();
+            continue;
+          }
+          if (lane.mPriority == Priority.BACKGROUND
+              && mLanes[Priority.INTERACTIVE.ordinal()].mInFlight > 0) {
+            // Retried when the interactive call completes.
+            break;
+          }
+          long waitMs = lane.tryAcquire(now);
+          if (waitMs > 0) {
+            retryInMs = Math.min(retryInMs, waitMs);
+            break;
+          }
+          Task<?> task = lane.mQueue.remove();
+          long queuedMs = now - task.mEnqueuedAtMs;
+          lane.mInFlight++;
+          lane.mIssued++;
+          lane.mWaitSumMs += queuedMs;
+          lane.mMaxWaitMs = Math.max(lane.mMaxWaitMs, queuedMs);
+          ready.add(task);
+        }
+      }
+      // One retry for all lanes, moved forward when a lane gets a token sooner.
+      if (retryInMs != Long.MAX_VALUE && now + retryInMs < mDrainAtMs) {
+        mDrainAtMs = now + retryInMs;
+        mHandler.removeCallbacks(mDrainRunnable);
+        mHandler.postDelayed(mDrainRunnable, retryInMs);
+      }
+    }
+    for (Task<?> task : ready) {
+      issue(task);
+    }
+  }
+
+  private <T> void issue(Task<T> task) {
+    CallResult<T> call;
+    try {
+      call = task.mCall.call();
+    } catch (RuntimeException e) {
+      release(task);
+      task.mResult.deliverError(e);
+      return;
+    }
+    task.mTimeout = () -> release(task);
+    mHandler.postDelayed(task.mTimeout, SLOT_TIMEOUT_MS);
+    call.setResultCallback(
+            data -> {
+              release(task);
+              task.mResult.deliverResult(ResultUtils.createSuccessfulResult(data));
+            })
+        .setErrorCallback(
+            error -> {
+              release(task);
+              task.mResult.deliverError(error);
+            });
+  }
+
+  private void release(Task<?> task) {
+    synchronized (this) {
+      if (task.mReleased) {
+        return;
+      }
+      task.mReleased = true;
+      task.mLane.mInFlight--;
+    }
+    if (task.mTimeout != null) {
+      mHandler.removeCallbacks(task.mTimeout);
+    }
+    drain();
+  }
+}
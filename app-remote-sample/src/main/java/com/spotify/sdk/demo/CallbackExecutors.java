@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.spotify.sdk.demo;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import com.spotify.protocol.client.CallResult;
+import com.spotify.protocol.client.ResultUtils;
+import com.spotify.protocol.client.Subscription;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Moves callback work off the main thread.
+ *
+ * <p>App Remote delivers every result and event on the main thread. The helpers here re-deliver
+ * them on another {@link Executor}, or run a transformation on a worker and only hop back to the
+ * main thread with the finished value, so that heavy work such as serializing a large {@code
+ * ListItems} or processing a {@code Bitmap} does not hold up frame rendering.
+ */
+public final class CallbackExecutors {
+
+  /** Work done on a worker thread. */
+  public interface Transform<T, R> {
+    R apply(T value) throws Exception;
+  }
+
+  /** Produces a value on a worker thread. */
+  public interface Task<R> {
+    R run() throws Exception;
+  }
+
+  private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+  private static final Executor sMainThread =
+      command -> {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+          command.run();
+        } else {
+          sMainHandler.post(command);
+        }
+      };
+
+  private static final ExecutorService sBackground =
+      Executors.newFixedThreadPool(
+          2,
+          new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+              Thread thread =
+                  new Thread(
+                      () -> {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                      },
+                      "app-remote-worker-" + mCount.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+
+  private CallbackExecutors() {}
+
+  /** Runs on the main thread, right away when already on it. */
+  public static Executor mainThread() {
+    return sMainThread;
+  }
+
+  /** Shared pool of background priority threads. */
+  public static Executor background() {
+    return sBackground;
+  }
+
+  /** Wraps {@code executor} so that tasks run one at a time, in the order they were submitted. */
+  public static Executor serial(Executor executor) {
+    return new SerialExecutor(executor);
+  }
+
+  /**
+   * Returns a result that completes on {@code executor} with the outcome of {@code call}. Set
+   * callbacks on the returned result, not on {@code call}.
+   */
+  public static <T> CallResult<T> deliverOn(Executor executor, CallResult<T> call) {
+    CallResult<T> result = CallResults.pending();
+    call.setResultCallback(
+            data ->
+                executor.execute(
+                    () -> result.deliverResult(ResultUtils.createSuccessfulResult(data))))
+        .setErrorCallback(error -> executor.execute(() -> result.deliverError(error)));
+    return result;
+  }
+
+  /** Wraps {@code callback} so that events are handled on {@code executor}, in order. */
+  public static <T> Subscription.EventCallback<T> deliverOn(
+      Executor executor, Subscription.EventCallback<T> callback) {
+    final Executor serial = serial(executor);
+    return data -> serial.execute(() -> callback.onEvent(data));
+  }
+
+  /**
+   * Runs {@code transform} on {@code worker} with the value of {@code call}, and completes the
+   * returned result with its outcome on the main thread.
+   */
+  public static <T, R> CallResult<R> transform(
+      CallResult<T> call, Executor worker, Transform<T, R> transform) {
+    CallResult<R> result = CallResults.pending();
+    call.setResultCallback(data -> worker.execute(() -> complete(result, transform, data)))
+        .setErrorCallback(error -> sMainThread.execute(() -> result.deliverError(error)));
+    return result;
+  }
+
+  /** Runs {@code task} on {@code worker} and completes the returned result on the main thread. */
+  public static <R> CallResult<R> submit(Executor worker, Task<R> task) {
+    CallResult<R> result = CallResults.pending();
+    worker.execute(() -> complete(result, value -> task.run(), null));
+    return result;
+  }
+
+  private static <T, R> void complete(CallResult<R> result, Transform<T, R> transform, T data) {
+    try {
+      R value = transform.apply(data);
+      sMainThread.execute(() -> result.deliverResult(ResultUtils.createSuccessfulResult(value)));
+    } catch (Exception e) {
+      sMainThread.execute(() -> result.deliverError(e));
+    }
+  }
+
+  private static final class SerialExecutor implements Executor {
+    private final Executor mExecutor;
+    private final Queue<Runnable> mTasks = new ArrayDeque<>();
+    private Runnable mActive;
+
+    SerialExecutor(Executor executor) {
+      mExecutor = executor;
+    }
+
+    @Override
+    public synchronized void execute(Runnable command) {
+      mTasks.add(
+          () -> {
+            try {
+              command.run();
+            } finally {
+              scheduleNext();
+            }
+          });
+      if (mActive == null) {
+        scheduleNext();
+      }
+    }
+
+    private synchronized void scheduleNext() {
+      mActive = mTasks.poll();
+      if (mActive != null) {
+        mExecutor.execute(mActive);
+      }
+    }
+  }
+}
@@ -0,0 +1,418 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.spotify.sdk.demo;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.spotify.android.appremote.api.ConnectionParams;
+import com.spotify.android.appremote.api.Connector;
+import com.spotify.android.appremote.api.SpotifyAppRemote;
+import com.spotify.android.appremote.api.error.SpotifyConnectionTerminatedException;
+import com.spotify.android.appremote.api.error.SpotifyDisconnectedException;
+import com.spotify.android.appremote.api.error.SpotifyRemoteServiceException;
+import com.spotify.protocol.client.CallResult;
+import com.spotify.protocol.client.ResultUtils;
+import com.spotify.protocol.client.Subscription;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+
+/**
+ * Keeps a connection to the Spotify app alive.
+ *
+ * <p>When the connection is lost with {@link SpotifyDisconnectedException}, {@link
+ * SpotifyConnectionTerminatedException} or {@link SpotifyRemoteServiceException}, the supervisor
+ * reconnects with exponential backoff and jitter. Other errors, such as the user not being logged
+ * in, stop it. After reconnecting, subscriptions opened through {@link #subscribe} are opened again
+ * and calls queued through {@link #call} while disconnected are replayed.
+ *
+ * <p>Not thread safe, use it from the main thread.
+ */
+public class ConnectionSupervisor {
+
+  private static final String TAG = ConnectionSupervisor.class.getSimpleName();
+
+  private static final long INITIAL_BACKOFF_MS = 500;
+  private static final long MAX_BACKOFF_MS = 30 * 1000;
+  private static final int MAX_QUEUED_CALLS = 64;
+
+  public interface Listener {
+    void onConnected(SpotifyAppRemote appRemote);
+
+    /**
+     * Called when the connection was lost or could not be established.
+     *
+     * @param reconnecting whether the supervisor will try again
+     */
+    void onDisconnected(Throwable error, boolean reconnecting);
+  }
+
+  /** Issues a call on the current connection. */
+  public interface Call<T> {
+    CallResult<T> call(SpotifyAppRemote appRemote);
+  }
+
+  /** Opens a subscription on the current connection. */
+  public interface SubscriptionFactory<T> {
+    Subscription<T> subscribe(SpotifyAppRemote appRemote);
+  }
+
+  /** A subscription that is opened again every time the supervisor reconnects. */
+  public final class SupervisedSubscription<T> {
+    private final SubscriptionFactory<T> mFactory;
+    private final Subscription.EventCallback<T> mEventCallback;
+    private Subscription<T> mSubscription;
+
+    SupervisedSubscription(SubscriptionFactory<T> factory, Subscription.EventCallback<T> callback) {
+      mFactory = factory;
+      mEventCallback = callback;
+    }
+
+    public void cancel() {
+      mSubscriptions.remove(this);
+      close();
+    }
+
+    void open(SpotifyAppRemote appRemote) {
+      close();
+      mSubscription = mFactory.subscribe(appRemote).setEventCallback(mEventCallback);
+      mSubscription.setErrorCallback(ConnectionSupervisor.this::onError);
+    }
+
+    void close() {
+      if (mSubscription != null && !mSubscription.isCanceled()) {
+        mSubscription.cancel();
+      }
+      mSubscription = null;
+    }
+  }
+
+  private enum State {
+    IDLE,
+    CONNECTING,
+    CONNECTED,
+    WAITING,
+    STOPPED
+  }
+
+  private final Context mContext;
+  private final ConnectionParams mConnectionParams;
+  private final Connector mConnector;
+  private final Listener mListener;
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+  private final Random mRandom = new Random();
+
+  private final List<SupervisedSubscription<?>> mSubscriptions = new ArrayList<>();
+  private final Queue<QueuedCall<?>> mQueuedCalls = new ArrayDeque<>();
+
+  private State mState = State.IDLE;
+  private SpotifyAppRemote mAppRemote;
+  private int mAttempt;
+  private int mGeneration;
+  private long mLostAtMs = -1;
+
+  private long mRecoveries;
+  private long mLastRecoveryMs;
+  private long mTotalRecoveryMs;
+
+  private final Runnable mReconnectRunnable = this::connect;
+
+  public ConnectionSupervisor(
+      Context context, ConnectionParams connectionParams, Listener listener) {
+    this(context, connectionParams, new SpotifyAppRemoteConnector(), listener);
+  }
+
+  public ConnectionSupervisor(
+      Context context, ConnectionParams connectionParams, Connector connector, Listener listener) {
+    mContext = context.getApplicationContext();
+    mConnectionParams = connectionParams;
+    mConnector = connector;
+    mListener = listener;
+  }
+
+  /** Connects, and keeps reconnecting until {@link #stop()} is called. */
+  public void start() {
+    if (mState == State.IDLE || mState == State.STOPPED) {
+      mAttempt = 0;
+      connect();
+    }
+  }
+
+  /**
+   * Reconnects right away if the supervisor is waiting out a backoff, e.g. because the user asked
+   * to connect. Does nothing otherwise.
+   */
+  public void retryNow() {
+    if (mState == State.WAITING) {
+      mHandler.removeCallbacks(mReconnectRunnable);
+      connect();
+    }
+  }
+
+  /** Disconnects and stops reconnecting. Queued calls fail with a disconnected error. */
+  public void stop() {
+    mState = State.STOPPED;
+    mGeneration++;
+    mHandler.removeCallbacks(mReconnectRunnable);
+    for (SupervisedSubscription<?> subscription : mSubscriptions) {
+      subscription.close();
+    }
+    if (mAppRemote != null) {
+      mConnector.disconnect(mAppRemote);
+      mAppRemote = null;
+    }
+    failQueuedCalls();
+    mLostAtMs = -1;
+  }
+
+  /** Whether the supervisor is connected or trying to connect. */
+  public boolean isStarted() {
+    return mState != State.IDLE && mState != State.STOPPED;
+  }
+
+  public boolean isConnected() {
+    return mState == State.CONNECTED && mAppRemote != null && mAppRemote.isConnected();
+  }
+
+  /** Returns the current connection, or {@code null} while disconnected. */
+  public SpotifyAppRemote getAppRemote() {
+    return isConnected() ? mAppRemote : null;
+  }
+
+  /**
+   * Opens a subscription now if connected, and again after every reconnect, until the returned
+   * handle is cancelled.
+   */
+  public <T> SupervisedSubscription<T> subscribe(
+      SubscriptionFactory<T> factory, Subscription.EventCallback<T> eventCallback) {
+    SupervisedSubscription<T> subscription = new SupervisedSubscription<>(factory, eventCallback);
+    mSubscriptions.add(subscription);
+    if (isConnected()) {
+      subscription.open(mAppRemote);
+    }
+    return subscription;
+  }
+
+  /**
+   * Issues {@code call} now if connected, otherwise when the connection is back. A call that fails
+   * because the connection dropped is queued and issued again, so only use this for idempotent
+   * calls.
+   */
+  public <T> CallResult<T> call(Call<T> call) {
+    CallResult<T> result = CallResults.pending();
+    issue(call, result);
+    return result;
+  }
+
+  /** Reports an error seen on this connection, e.g. from a call not made through the supervisor. */
+  public void onError(Throwable error) {
+    if (mState != State.CONNECTED) {
+      return;
+    }
+    if (isRecoverable(error)) {
+      onConnectionLost(error);
+    } else {
+      Log.w(TAG, "Error on connection", error);
+    }
+  }
+
+  /** Number of times the connection was lost and came back. */
+  public long getRecoveryCount() {
+    return mRecoveries;
+  }
+
+  /** Time from losing the connection until it was back, for the most recent recovery. */
+  public long getLastRecoveryTimeMs() {
+    return mLastRecoveryMs;
+  }
+
+  public long getAverageRecoveryTimeMs() {
+    return mRecoveries > 0 ? mTotalRecoveryMs / mRecoveries : 0;
+  }
+
+  private <T> void issue(Call<T> call, CallResult<T> result) {
+    if (mState == State.STOPPED) {
+      result.deliverError(new SpotifyDisconnectedException());
+      return;
+    }
+    if (!isConnected()) {
+      enqueue(call, result);
+      return;
+    }
+    call.call(mAppRemote)
+        .setResultCallback(data -> result.deliverResult(ResultUtils.createSuccessfulResult(data)))
+        .setErrorCallback(
+            error -> {
+              if (isRecoverable(error) && mState != State.STOPPED) {
+                enqueue(call, result);
+                onError(error);
+              } else {
+                result.deliverError(error);
+              }
+            });
+  }
+
+  private <T> void enqueue(Call<T> call, CallResult<T> result) {
+    if (mQueuedCalls.size() >= MAX_QUEUED_CALLS) {
+      result.deliverError(new SpotifyDisconnectedException());
+    } else {
+      mQueuedCalls.add(new QueuedCall<>(call, result));
+    }
+  }
+
+  private <T> void issue(QueuedCall<T> queued) {
+    issue(queued.mCall, queued.mResult);
+  }
+
+  private void failQueuedCalls() {
+    List<QueuedCall<?>> queued = new ArrayList<>(mQueuedCalls);
+    mQueuedCalls.clear();
+    for (QueuedCall<?> call : queued) {
+      call.mResult.deliverError(new SpotifyDisconnectedException());
+    }
+  }
+
+  private void connect() {
+    mState = State.CONNECTING;
+    final int generation = ++mGeneration;
+    mConnector.connect(
+        mContext,
+        mConnectionParams,
+        new Connector.ConnectionListener() {
+          @Override
+          public void onConnected(SpotifyAppRemote appRemote) {
+            if (generation != mGeneration) {
+              mConnector.disconnect(appRemote);
+              return;
+            }
+            onConnectionEstablished(appRemote);
+          }
+
+          @Override
+          public void onFailure(Throwable error) {
+            // Also called when an established connection is lost later on.
+            if (generation != mGeneration) {
+              return;
+            }
+            onConnectionLost(error);
+          }
+        });
+  }
+
+  private void onConnectionEstablished(SpotifyAppRemote appRemote) {
+    mState = State.CONNECTED;
+    mAppRemote = appRemote;
+    mAttempt = 0;
+    if (mLostAtMs >= 0) {
+      mLastRecoveryMs = SystemClock.elapsedRealtime() - mLostAtMs;
+      mTotalRecoveryMs += mLastRecoveryMs;
+      mRecoveries++;
+      mLostAtMs = -1;
+      Log.d(TAG, "Connection recovered in " + mLastRecoveryMs + "ms");
+    }
+    mListener.onConnected(appRemote);
+
+    for (SupervisedSubscription<?> subscription : new ArrayList<>(mSubscriptions)) {
+      subscription.open(appRemote);
+    }
+    List<QueuedCall<?>> queued = new ArrayList<>(mQueuedCalls);
+    mQueuedCalls.clear();
+    for (QueuedCall<?> call : queued) {
+      issue(call);
+    }
+  }
+
+  private void onConnectionLost(Throwable error) {
+    if (mState == State.STOPPED || mState == State.WAITING) {
+      return;
+    }
+    boolean wasConnected = mState == State.CONNECTED;
+    mGeneration++;
+    for (SupervisedSubscription<?> subscription : mSubscriptions) {
+      subscription.close();
+    }
+    if (mAppRemote != null) {
+      mConnector.disconnect(mAppRemote);
+      mAppRemote = null;
+    }
+    if (wasConnected && mLostAtMs < 0) {
+      mLostAtMs = SystemClock.elapsedRealtime();
+    }
+
+    boolean reconnecting = isRecoverable(error);
+    if (reconnecting) {
+      mState = State.WAITING;
+      mHandler.postDelayed(mReconnectRunnable, nextBackoffMs());
+    } else {
+      mState = State.STOPPED;
+      failQueuedCalls();
+    }
+    mListener.onDisconnected(error, reconnecting);
+  }
+
+  private long nextBackoffMs() {
+    long ceiling = Math.min(MAX_BACKOFF_MS, INITIAL_BACKOFF_MS << Math.min(mAttempt, 16));
+    mAttempt++;
+    // Jitter between half and the full backoff, so many clients do not reconnect in lockstep.
+    return ceiling / 2 + (long) (mRandom.nextDouble() * (ceiling / 2));
+  }
+
+  private static boolean isRecoverable(Throwable error) {
+    return error instanceof SpotifyDisconnectedException
+        || error instanceof SpotifyConnectionTerminatedException
+        || error instanceof SpotifyRemoteServiceException;
+  }
+
+  /** A call waiting for the connection, with the result its caller holds. */
+  private static final class QueuedCall<T> {
+    final Call<T> mCall;
+    final CallResult<T> mResult;
+
+    QueuedCall(Call<T> call, CallResult<T> result) {
+      mCall = call;
+      mResult = result;
+    }
+  }
+
+  /** Connects through the static {@link SpotifyAppRemote} entry points. */
+  private static final class SpotifyAppRemoteConnector implements Connector {
+
+    @Override
+    public void connect(
+        Context context, ConnectionParams params, Connector.ConnectionListener listener) {
+      SpotifyAppRemote.connect(context, params, listener);
+    }
+
+    @Override
+    public void disconnect(SpotifyAppRemote appRemote) {
+      SpotifyAppRemote.disconnect(appRemote);
+    }
+  }
+}
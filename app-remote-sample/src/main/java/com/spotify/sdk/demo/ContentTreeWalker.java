@@ -0,0 +1,306 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.spotify.sdk.demo;
+
+import com.spotify.android.appremote.api.ContentApi;
+import com.spotify.protocol.client.CallResult;
+import com.spotify.protocol.types.ListItem;
+import com.spotify.protocol.types.ListItems;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+/**
+ * Walks the content tree below {@link ContentApi#getRecommendedContentItems(String)}.
+ *
+ * <p>Browsable (non-playable) items are expanded with {@link ContentApi#getChildrenOfItem} down to
+ * a maximum depth, with a bounded number of requests in flight. Pages are handed to the listener as
+ * they arrive. A failed request is reported and skipped, the rest of the walk continues and {@link
+ * Listener#onComplete()} is always called exactly once.
+ *
+ * <p>Listener calls are serialized. A walker is single use.
+ */
+public class ContentTreeWalker {
+
+  public interface Listener {
+
+    /**
+     * Called for every page that was loaded.
+     *
+     * @param parent the item that was expanded, or {@code null} for the root page
+     * @param depth 0 for the root page, 1 for its children, and so on
+     */
+    void onPage(ListItem parent, ListItems page, int depth);
+
+    /**
+     * Called when loading a page failed.
+     *
+     * @param parent the item that was being expanded, or {@code null} for the root page
+     */
+    void onError(ListItem parent, Throwable error);
+
+    /** Called once every page has either been loaded or failed, or the walk was cancelled. */
+    void onComplete();
+  }
+
+  public static class Builder {
+
+    private final ContentApi mContentApi;
+    private int mMaxDepth = 1;
+    private int mPageSize = 20;
+    private int mMaxParallelRequests = 4;
+    private ListItemsPageCache mPageCache;
+    private Executor mCallbackExecutor;
+
+    public Builder(ContentApi contentApi) {
+      mContentApi = contentApi;
+    }
+
+    /** How many levels below the root page to expand. 0 loads the root page only. */
+    public Builder setMaxDepth(int maxDepth) {
+      mMaxDepth = maxDepth;
+      return this;
+    }
+
+    /** Number of children requested per expanded item. */
+    public Builder setPageSize(int pageSize) {
+      mPageSize = pageSize;
+      return this;
+    }
+
+    public Builder setMaxParallelRequests(int maxParallelRequests) {
+      if (maxParallelRequests < 1) {
+        throw new IllegalArgumentException("maxParallelRequests must be at least 1");
+      }
+      mMaxParallelRequests = maxParallelRequests;
+      return this;
+    }
+
+    /** Serves children from {@code pageCache} and stores the pages loaded during the walk. */
+    public Builder setPageCache(ListItemsPageCache pageCache) {
+      mPageCache = pageCache;
+      return this;
+    }
+
+    /**
+     * Calls the listener on {@code executor} instead of the thread the pages arrive on. Calls
+     * still happen one at a time and in order.
+     */
+    public Builder setCallbackExecutor(Executor executor) {
+      mCallbackExecutor = executor;
+      return this;
+    }
+
+    public ContentTreeWalker build() {
+      return new ContentTreeWalker(this);
+    }
+  }
+
+  /** A page that has not arrived after this long is reported as failed. */
+  private static final long LOAD_DEADLINE_MS = 10000;
+
+  private static final class Node {
+    final ListItem mItem;
+    final int mDepth;
+
+    Node(ListItem item, int depth) {
+      mItem = item;
+      mDepth = depth;
+    }
+  }
+
+  private final ContentApi mContentApi;
+  private final int mMaxDepth;
+  private final int mPageSize;
+  private final int mMaxParallelRequests;
+  private final ListItemsPageCache mPageCache;
+  private final Executor mCallbackExecutor;
+
+  private final Object mListenerLock = new Object();
+  private final Queue<Node> mPending = new ArrayDeque<>();
+  private Listener mListener;
+  private int mInFlight;
+  private int mPagesLoaded;
+  private int mErrors;
+  private boolean mStarted;
+  private boolean mFinished;
+
+  private ContentTreeWalker(Builder builder) {
+    mContentApi = builder.mContentApi;
+    mMaxDepth = builder.mMaxDepth;
+    mPageSize = builder.mPageSize;
+    mMaxParallelRequests = builder.mMaxParallelRequests;
+    mPageCache = builder.mPageCache;
+    mCallbackExecutor =
+        builder.mCallbackExecutor != null
+            ? CallbackExecutors.serial(builder.mCallbackExecutor)
+            : null;
+  }
+
+  /**
+   * Starts the walk from the recommended items of {@code contentType}, see {@link
+   * ContentApi.ContentType}.
+   *
+   * @throws IllegalStateException if the walker was already started
+   */
+  public void walk(String contentType, Listener listener) {
+    synchronized (this) {
+      if (mStarted) {
+        throw new IllegalStateException("Walker already started");
+      }
+      mStarted = true;
+      mListener = listener;
+      mInFlight = 1;
+    }
+    load(
+        null,
+        0,
+        () ->
+            CallScheduler.getInstance()
+                .schedule(
+                    CallScheduler.Priority.VISIBLE,
+                    "ContentApi.getRecommendedContentItems",
+                    () ->
+                        CallDeadlines.withDeadline(
+                            mContentApi.getRecommendedContentItems(contentType),
+                            LOAD_DEADLINE_MS)));
+  }
+
+  /** Stops issuing requests. Requests already in flight are ignored when they complete. */
+  public void cancel() {
+    synchronized (this) {
+      mPending.clear();
+    }
+    finishIfDone(true);
+  }
+
+  public synchronized int getPagesLoaded() {
+    return mPagesLoaded;
+  }
+
+  public synchronized int getErrorCount() {
+    return mErrors;
+  }
+
+  private void load(ListItem parent, int depth, RemoteCall<ListItems> call) {
+    CallResult<ListItems> result;
+    try {
+      result = call.call();
+    } catch (RuntimeException e) {
+      onFailed(parent, e);
+      return;
+    }
+    result
+        .setResultCallback(page -> onLoaded(parent, page, depth))
+        .setErrorCallback(error -> onFailed(parent, error));
+  }
+
+  private void onLoaded(ListItem parent, ListItems page, int depth) {
+    synchronized (this) {
+      if (mFinished) {
+        return;
+      }
+      mPagesLoaded++;
+      if (depth < mMaxDepth && page.items != null) {
+        for (ListItem item : page.items) {
+          if (!item.playable) {
+            mPending.add(new Node(item, depth + 1));
+          }
+        }
+      }
+    }
+    // Dispatched before the request counts as done, so onComplete is always dispatched last.
+    dispatch(() -> mListener.onPage(parent, page, depth));
+    synchronized (this) {
+      mInFlight--;
+    }
+    drain();
+  }
+
+  private void onFailed(ListItem parent, Throwable error) {
+    synchronized (this) {
+      if (mFinished) {
+        return;
+      }
+      mErrors++;
+    }
+    dispatch(() -> mListener.onError(parent, error));
+    synchronized (this) {
+      mInFlight--;
+    }
+    drain();
+  }
+
+  private void drain() {
+    while (true) {
+      Node node;
+      synchronized (this) {
+        if (mFinished || mInFlight >= mMaxParallelRequests || mPending.isEmpty()) {
+          break;
+        }
+        node = mPending.remove();
+        mInFlight++;
+      }
+      load(node.mItem, node.mDepth, () -> loadChildren(node.mItem));
+    }
+    finishIfDone(false);
+  }
+
+  private CallResult<ListItems> loadChildren(ListItem parent) {
+    if (mPageCache != null) {
+      return mPageCache.getChildrenOfItem(mContentApi, parent, mPageSize, 0);
+    }
+    return CallScheduler.getInstance()
+        .schedule(
+            CallScheduler.Priority.VISIBLE,
+            "ContentApi.getChildrenOfItem",
+            () ->
+                CallDeadlines.withDeadline(
+                    mContentApi.getChildrenOfItem(parent, mPageSize, 0), LOAD_DEADLINE_MS));
+  }
+
+  private void finishIfDone(boolean cancelled) {
+    synchronized (this) {
+      if (!mStarted || mFinished || (!cancelled && (mInFlight > 0 || !mPending.isEmpty()))) {
+        return;
+      }
+      mFinished = true;
+    }
+    dispatch(() -> mListener.onComplete());
+  }
+
+  private void dispatch(Runnable call) {
+    Runnable locked =
+        () -> {
+          synchronized (mListenerLock) {
+            call.run();
+          }
+        };
+    if (mCallbackExecutor != null) {
+      mCallbackExecutor.execute(locked);
+    } else {
+      locked.run();
+    }
+  }
+}
@@ -0,0 +1,418 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.spotify.sdk.demo;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.spotify.android.appremote.api.ImagesApi;
+import com.spotify.protocol.client.CallResult;
+import com.spotify.protocol.client.ResultUtils;
+import com.spotify.protocol.types.Image;
+import com.spotify.protocol.types.ImageUri;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Two-tier cache in front of {@link ImagesApi#getImage(ImageUri, Image.Dimension)}.
+ *
+ * <p>Bitmaps are kept in an in-memory LRU sized by byte count, and written to a disk tier in the
+ * app's cache directory. Entries are keyed by {@link ImageUri} and {@link Image.Dimension}, so
+ * asking for the same cover art again never goes over IPC while it is cached.
+ */
+public class CoverArtCache {
+
+  private static final String TAG = CoverArtCache.class.getSimpleName();
+
+  private static final String DISK_CACHE_DIR = "cover-art";
+  private static final long DEFAULT_DISK_CACHE_BYTES = 20 * 1024 * 1024;
+  private static final int DISK_CACHE_QUALITY = 90;
+
+  private final LruCache<String, Bitmap> mMemoryCache;
+  private final File mDiskCacheDir;
+  private final long mMaxDiskCacheBytes;
+  private final ExecutorService mDiskExecutor = Executors.newSingleThreadExecutor();
+  private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+  private final CallCoalescer mCallCoalescer;
+
+  private final AtomicLong mMemoryHits = new AtomicLong();
+  private final AtomicLong mDiskHits = new AtomicLong();
+  private final AtomicLong mMisses = new AtomicLong();
+  private final AtomicLong mPrefetches = new AtomicLong();
+
+  public CoverArtCache(Context context, CallCoalescer callCoalescer) {
+    this(context, callCoalescer, defaultMemoryCacheBytes(), DEFAULT_DISK_CACHE_BYTES);
+  }
+
+  /** @param callCoalescer shared with other readers, so identical image reads go out once */
+  public CoverArtCache(
+      Context context,
+      CallCoalescer callCoalescer,
+      int maxMemoryCacheBytes,
+      long maxDiskCacheBytes) {
+    mCallCoalescer = callCoalescer;
+    mMemoryCache =
+        new LruCache<String, Bitmap>(maxMemoryCacheBytes) {
+          @Override
+          protected int sizeOf(String key, Bitmap bitmap) {
+            return bitmap.getByteCount();
+          }
+        };
+    mDiskCacheDir = new File(context.getApplicationContext().getCacheDir(), DISK_CACHE_DIR);
+    mMaxDiskCacheBytes = maxDiskCacheBytes;
+  }
+
+  /**
+   * Returns the image for {@code imageUri} in the given dimension, from memory, disk or the
+   * Spotify app, in that order. Callbacks are delivered on the main thread.
+   */
+  public CallResult<Bitmap> getImage(
+      ImagesApi imagesApi, ImageUri imageUri, Image.Dimension dimension) {
+    final String key = keyOf(imageUri, dimension);
+
+    Bitmap bitmap = mMemoryCache.get(key);
+    if (bitmap != null) {
+      mMemoryHits.incrementAndGet();
+      return CallResults.completed(bitmap);
+    }
+
+    final CallResult<Bitmap> result = CallResults.pending();
+    mDiskExecutor.execute(
+        () -> {
+          Bitmap fromDisk = readFromDisk(key);
+          if (fromDisk != null) {
+            mDiskHits.incrementAndGet();
+            mMemoryCache.put(key, fromDisk);
+            mMainHandler.post(
+                () -> result.deliverResult(ResultUtils.createSuccessfulResult(fromDisk)));
+          } else {
+            mMisses.incrementAndGet();
+            mMainHandler.post(() -> fetch(imagesApi, imageUri, dimension, key, result));
+          }
+        });
+    return result;
+  }
+
+  /**
+   * Returns the image for {@code imageUri} decoded to about {@code targetSizePx} in {@code config},
+   * for views that are smaller than the image.
+   *
+   * <p>The smallest {@link Image.Dimension} that covers the target size is requested, and decoded
+   * from the disk tier with the largest power of two sample size that keeps it at least {@code
+   * targetSizePx} wide and high. If {@code pool} is not null, the decode reuses one of its bitmaps
+   * when one fits.
+   *
+   * <p>The bitmap is not kept in the memory tier. It belongs to the caller, who can hand it to
+   * {@code pool} once it is no longer displayed. Callbacks are delivered on the main thread.
+   */
+  public CallResult<Bitmap> getImage(
+      ImagesApi imagesApi,
+      ImageUri imageUri,
+      int targetSizePx,
+      Bitmap.Config config,
+      BitmapPool pool) {
+    final Image.Dimension dimension = dimensionFor(targetSizePx);
+    final String key = keyOf(imageUri, dimension);
+    final CallResult<Bitmap> result = CallResults.pending();
+    mDiskExecutor.execute(
+        () -> {
+          Bitmap fromDisk = decodeFromDisk(key, targetSizePx, config, pool);
+          if (fromDisk != null) {
+            mDiskHits.incrementAndGet();
+            deliverOnMain(result, fromDisk);
+            return;
+          }
+          mMisses.incrementAndGet();
+          mMainHandler.post(
+              () ->
+                  mCallCoalescer
+                      .getImage(imagesApi, imageUri, dimension)
+                      .setResultCallback(
+                          bitmap ->
+                              mDiskExecutor.execute(
+                                  () -> {
+                                    Bitmap decoded =
+                                        writeToDisk(key, bitmap)
+                                            ? decodeFromDisk(key, targetSizePx, config, pool)
+                                            : null;
+                                    deliverOnMain(
+                                        result,
+                                        decoded != null ? decoded : scale(bitmap, targetSizePx));
+                                  }))
+                      .setErrorCallback(result::deliverError));
+        });
+    return result;
+  }
+
+  /**
+   * Makes sure the image that {@link #getImage(ImagesApi, ImageUri, int, Bitmap.Config,
+   * BitmapPool)} loads for {@code targetSizePx} is in the disk tier, without decoding it. Completes
+   * with {@code true} if the image had to be fetched from the Spotify app, {@code false} if it was
+   * already cached. Callbacks are delivered on the main thread.
+   */
+  public CallResult<Boolean> prefetch(ImagesApi imagesApi, ImageUri imageUri, int targetSizePx) {
+    final Image.Dimension dimension = dimensionFor(targetSizePx);
+    final String key = keyOf(imageUri, dimension);
+    final CallResult<Boolean> result = CallResults.pending();
+    mDiskExecutor.execute(
+        () -> {
+          if (new File(mDiskCacheDir, key).exists()) {
+            deliverOnMain(result, false);
+            return;
+          }
+          mPrefetches.incrementAndGet();
+          mMainHandler.post(
+              () ->
+                  mCallCoalescer
+                      .getImage(imagesApi, imageUri, dimension, CallScheduler.Priority.BACKGROUND)
+                      .setResultCallback(
+                          bitmap ->
+                              mDiskExecutor.execute(
+                                  () -> {
+                                    writeToDisk(key, bitmap);
+                                    deliverOnMain(result, true);
+                                  }))
+                      .setErrorCallback(result::deliverError));
+        });
+    return result;
+  }
+
+  /** Drops every entry in the memory tier. The disk tier is kept. */
+  public void evictMemory() {
+    mMemoryCache.evictAll();
+  }
+
+  public long getMemoryHitCount() {
+    return mMemoryHits.get();
+  }
+
+  public long getDiskHitCount() {
+    return mDiskHits.get();
+  }
+
+  public long getMissCount() {
+    return mMisses.get();
+  }
+
+  /** Number of images {@link #prefetch} fetched from the Spotify app. */
+  public long getPrefetchCount() {
+    return mPrefetches.get();
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        Locale.US,
+        "CoverArtCache{memoryHits=%d, diskHits=%d, misses=%d, prefetches=%d, memoryBytes=%d/%d}",
+        getMemoryHitCount(),
+        getDiskHitCount(),
+        getMissCount(),
+        getPrefetchCount(),
+        mMemoryCache.size(),
+        mMemoryCache.maxSize());
+  }
+
+  private void fetch(
+      ImagesApi imagesApi,
+      ImageUri imageUri,
+      Image.Dimension dimension,
+      String key,
+      CallResult<Bitmap> result) {
+    // Misses for the same image that race each other share one round-trip.
+    mCallCoalescer
+        .getImage(imagesApi, imageUri, dimension)
+        .setResultCallback(
+            bitmap -> {
+              mMemoryCache.put(key, bitmap);
+              mDiskExecutor.execute(() -> writeToDisk(key, bitmap));
+              result.deliverResult(ResultUtils.createSuccessfulResult(bitmap));
+            })
+        .setErrorCallback(result::deliverError);
+  }
+
+  private Bitmap readFromDisk(String key) {
+    File file = new File(mDiskCacheDir, key);
+    if (!file.exists()) {
+      return null;
+    }
+    Bitmap bitmap = BitmapFactory.decodeFile(file.getPath());
+    if (bitmap == null) {
+      // Truncated or otherwise unreadable, fetch it again.
+      file.delete();
+    } else {
+      file.setLastModified(System.currentTimeMillis());
+    }
+    return bitmap;
+  }
+
+  private Bitmap decodeFromDisk(
+      String key, int targetSizePx, Bitmap.Config config, BitmapPool pool) {
+    File file = new File(mDiskCacheDir, key);
+    if (!file.exists()) {
+      return null;
+    }
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inJustDecodeBounds = true;
+    BitmapFactory.decodeFile(file.getPath(), options);
+    if (options.outWidth <= 0 || options.outHeight <= 0) {
+      file.delete();
+      return null;
+    }
+    int sampleSize = sampleSizeFor(options.outWidth, options.outHeight, targetSizePx);
+    options.inJustDecodeBounds = false;
+    options.inSampleSize = sampleSize;
+    options.inPreferredConfig = config;
+    options.inMutable = true;
+    if (pool != null) {
+      options.inBitmap =
+          pool.get(
+              (options.outWidth + sampleSize - 1) / sampleSize,
+              (options.outHeight + sampleSize - 1) / sampleSize,
+              config);
+    }
+    Bitmap bitmap;
+    try {
+      bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+    } catch (IllegalArgumentException e) {
+      if (options.inBitmap == null) {
+        throw e;
+      }
+      // The pooled bitmap could not be reused after all, decode into a new one.
+      pool.put(options.inBitmap);
+      options.inBitmap = null;
+      bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+    }
+    if (bitmap == null) {
+      file.delete();
+    } else {
+      file.setLastModified(System.currentTimeMillis());
+    }
+    return bitmap;
+  }
+
+  private <T> void deliverOnMain(CallResult<T> result, T data) {
+    mMainHandler.post(() -> result.deliverResult(ResultUtils.createSuccessfulResult(data)));
+  }
+
+  private boolean writeToDisk(String key, Bitmap bitmap) {
+    if (!mDiskCacheDir.isDirectory() && !mDiskCacheDir.mkdirs()) {
+      Log.w(TAG, "Could not create " + mDiskCacheDir);
+      return false;
+    }
+    File tmp = new File(mDiskCacheDir, key + ".tmp");
+    try (OutputStream out = new FileOutputStream(tmp)) {
+      bitmap.compress(Bitmap.CompressFormat.JPEG, DISK_CACHE_QUALITY, out);
+    } catch (IOException e) {
+      Log.w(TAG, "Could not write " + key, e);
+      tmp.delete();
+      return false;
+    }
+    if (!tmp.renameTo(new File(mDiskCacheDir, key))) {
+      tmp.delete();
+      return false;
+    }
+    trimDisk();
+    return true;
+  }
+
+  private void trimDisk() {
+    File[] files = mDiskCacheDir.listFiles();
+    if (files == null) {
+      return;
+    }
+    long total = 0;
+    for (File file : files) {
+      total += file.length();
+    }
+    if (total <= mMaxDiskCacheBytes) {
+      return;
+    }
+    Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+    for (File file : files) {
+      if (total <= mMaxDiskCacheBytes) {
+        break;
+      }
+      long length = file.length();
+      if (file.delete()) {
+        total -= length;
+      }
+    }
+  }
+
+  /** The smallest dimension at least {@code targetSizePx} on each side, or the largest one. */
+  static Image.Dimension dimensionFor(int targetSizePx) {
+    Image.Dimension best = null;
+    for (Image.Dimension dimension : Image.Dimension.values()) {
+      if (dimension.getValue() >= targetSizePx
+          && (best == null || dimension.getValue() < best.getValue())) {
+        best = dimension;
+      }
+    }
+    return best != null ? best : Image.Dimension.LARGE;
+  }
+
+  /** The largest power of two sample size that keeps both sides at least {@code targetSizePx}. */
+  static int sampleSizeFor(int width, int height, int targetSizePx) {
+    int shortSide = Math.min(width, height);
+    int sampleSize = 1;
+    while (shortSide / (sampleSize * 2) >= targetSizePx) {
+      sampleSize *= 2;
+    }
+    return sampleSize;
+  }
+
+  private static Bitmap scale(Bitmap bitmap, int targetSizePx) {
+    // Only used when the disk tier is unavailable, so there is no file to sample from.
+    int shortSide = Math.min(bitmap.getWidth(), bitmap.getHeight());
+    if (shortSide <= targetSizePx) {
+      return bitmap;
+    }
+    return Bitmap.createScaledBitmap(
+        bitmap,
+        bitmap.getWidth() * targetSizePx / shortSide,
+        bitmap.getHeight() * targetSizePx / shortSide,
+        true);
+  }
+
+  private static String keyOf(ImageUri imageUri, Image.Dimension dimension) {
+    // Image URIs look like "spotify:image:<hex>", keep the key usable as a file name.
+    return imageUri.raw.replaceAll("[^A-Za-z0-9._-]", "_") + "_" + dimension.getValue();
+  }
+
+  private static int defaultMemoryCacheBytes() {
+    return (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 8);
+  }
+}
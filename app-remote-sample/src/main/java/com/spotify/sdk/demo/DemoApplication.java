@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.spotify.sdk.demo;
+
+import android.app.Application;
+
+import com.spotify.android.appremote.api.ConnectionParams;
+
+public class DemoApplication extends Application {
+
+  static final String CLIENT_ID = "089d841ccc194c10a77afad9e1c11d54";
+  static final String REDIRECT_URI = "comspotifytestsdk://callback";
+
+  private static final InterningJsonMapper sJsonMapper = new InterningJsonMapper();
+
+  @Override
+  public void onCreate() {
+    super.onCreate();
+    // Start binding to Spotify while the first activity is still being created.
+    AppRemoteHolder.init(this, connectionParams(false)).prewarm();
+  }
+
+  static ConnectionParams connectionParams(boolean showAuthView) {
+    return new ConnectionParams.Builder(CLIENT_ID)
+        .setRedirectUri(REDIRECT_URI)
+        .showAuthView(showAuthView)
+        .setJsonMapper(sJsonMapper)
+        .build();
+  }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.spotify.sdk.demo;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.spotify.protocol.client.Subscription;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Backpressure policies for subscription events.
+ *
+ * <p>Each policy wraps the {@link Subscription.EventCallback} passed to {@code setEventCallback}
+ * and decides which events reach it when the consumer cannot keep up:
+ *
+ * <ul>
+ *   <li>{@link #latest} only delivers the newest pending event, so stale events are never
+ *       rendered after newer ones.
+ *   <li>{@link #rateLimited} delivers at most a number of events per second, plus the newest one
+ *       at the end of a burst.
+ *   <li>{@link #buffered} keeps up to a number of events and drops the oldest beyond that.
+ * </ul>
+ *
+ * Either way the backlog is bounded. Every policy counts the events it delivered and dropped.
+ */
+public final class EventBackpressure {
+
+  private EventBackpressure() {}
+
+  /** An {@link Subscription.EventCallback} that applies a backpressure policy. */
+  public abstract static class Callback<T> implements Subscription.EventCallback<T> {
+    final Subscription.EventCallback<T> mDownstream;
+    private final AtomicLong mDelivered = new AtomicLong();
+    private final AtomicLong mDropped = new AtomicLong();
+
+    Callback(Subscription.EventCallback<T> downstream) {
+      mDownstream = downstream;
+    }
+
+    public long getDeliveredCount() {
+      return mDelivered.get();
+    }
+
+    /** Number of events that were replaced or discarded before being delivered. */
+    public long getDroppedCount() {
+      return mDropped.get();
+    }
+
+    void deliver(T data) {
+      mDelivered.incrementAndGet();
+      mDownstream.onEvent(data);
+    }
+
+    void dropped() {
+      mDropped.incrementAndGet();
+    }
+  }
+
+  /** Like {@link #latest(Executor, Subscription.EventCallback)}, delivering on the main thread. */
+  public static <T> Callback<T> latest(Subscription.EventCallback<T> callback) {
+    return latest(new Handler(Looper.getMainLooper())::post, callback);
+  }
+
+  /**
+   * Delivers events on {@code executor}, replacing an event that was not delivered yet with the
+   * newer one.
+   */
+  public static <T> Callback<T> latest(Executor executor, Subscription.EventCallback<T> callback) {
+    return new Latest<>(executor, callback);
+  }
+
+  /**
+   * Like {@link #rateLimited(Handler, int, Subscription.EventCallback)}, delivering on the main
+   * thread.
+   */
+  public static <T> Callback<T> rateLimited(
+      int maxPerSecond, Subscription.EventCallback<T> callback) {
+    return rateLimited(new Handler(Looper.getMainLooper()), maxPerSecond, callback);
+  }
+
+  /**
+   * Delivers at most {@code maxPerSecond} events per second on {@code handler}. Events in between
+   * are conflated, and the newest one is delivered once the interval has passed.
+   */
+  public static <T> Callback<T> rateLimited(
+      Handler handler, int maxPerSecond, Subscription.EventCallback<T> callback) {
+    if (maxPerSecond < 1) {
+      throw new IllegalArgumentException("maxPerSecond must be at least 1");
+    }
+    return new RateLimited<>(handler, 1000 / maxPerSecond, callback);
+  }
+
+  /**
+   * Delivers events in order on {@code executor}, keeping at most {@code capacity} undelivered
+   * events. When full, the oldest event is dropped.
+   */
+  public static <T> Callback<T> buffered(
+      Executor executor, int capacity, Subscription.EventCallback<T> callback) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity must be at least 1");
+    }
+    return new Buffered<>(executor, capacity, callback);
+  }
+
+  private static final class Latest<T> extends Callback<T> {
+    private final Executor mExecutor;
+    private T mPending;
+    private boolean mScheduled;
+
+    Latest(Executor executor, Subscription.EventCallback<T> downstream) {
+      super(downstream);
+      mExecutor = executor;
+    }
+
+    @Override
+    public void onEvent(T data) {
+      synchronized (this) {
+        if (mScheduled) {
+          mPending = data;
+          dropped();
+          return;
+        }
+        mPending = data;
+        mScheduled = true;
+      }
+      mExecutor.execute(this::drain);
+    }
+
+    private void drain() {
+      T data;
+      synchronized (this) {
+        data = mPending;
+        mPending = null;
+        mScheduled = false;
+      }
+      deliver(data);
+    }
+  }
+
+  private static final class RateLimited<T> extends Callback<T> {
+    private final Handler mHandler;
+    private final long mIntervalMs;
+    private final Runnable mFlush = this::flush;
+    private long mLastDeliveryMs = -1;
+    private T mPending;
+    private boolean mHasPending;
+
+    RateLimited(Handler handler, long intervalMs, Subscription.EventCallback<T> downstream) {
+      super(downstream);
+      mHandler = handler;
+      mIntervalMs = intervalMs;
+    }
+
+    @Override
+    public void onEvent(T data) {
+      long delayMs;
+      synchronized (this) {
+        mPending = data;
+        if (mHasPending) {
+          // A flush is already posted and will deliver this event instead.
+          dropped();
+          return;
+        }
+        mHasPending = true;
+        delayMs =
+            mLastDeliveryMs < 0
+                ? 0
+                : Math.max(0, mLastDeliveryMs + mIntervalMs - SystemClock.elapsedRealtime());
+      }
+      mHandler.postDelayed(mFlush, delayMs);
+    }
+
+    private void flush() {
+      T data;
+      synchronized (this) {
+        data = mPending;
+        mPending = null;
+        mHasPending = false;
+        mLastDeliveryMs = SystemClock.elapsedRealtime();
+      }
+      deliver(data);
+    }
+  }
+
+  private static final class Buffered<T> extends Callback<T> {
+    private final Executor mExecutor;
+    private final int mCapacity;
+    private final Queue<T> mQueue = new ArrayDeque<>();
+    private boolean mDraining;
+
+    Buffered(Executor executor, int capacity, Subscription.EventCallback<T> downstream) {
+      super(downstream);
+      mExecutor = executor;
+      mCapacity = capacity;
+    }
+
+    @Override
+    public void onEvent(T data) {
+      synchronized (this) {
+        if (mQueue.size() >= mCapacity) {
+          mQueue.remove();
+          dropped();
+        }
+        mQueue.add(data);
+        if (mDraining) {
+          return;
+        }
+        mDraining = true;
+      }
+      mExecutor.execute(this::drain);
+    }
+
+    private void drain() {
+      while (true) {
+        T data;
+        synchronized (this) {
+          data = mQueue.poll();
+          if (data == null) {
+            mDraining = false;
+            return;
+          }
+        }
+        deliver(data);
+      }
+    }
+  }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.spotify.sdk.demo;
+
+import android.util.Base64;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonDeserializer;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSerializer;
+import com.spotify.protocol.mappers.JsonArray;
+import com.spotify.protocol.mappers.JsonMapper;
+import com.spotify.protocol.mappers.JsonMappingException;
+import com.spotify.protocol.mappers.JsonObject;
+import com.spotify.protocol.types.ImageUri;
+import com.spotify.protocol.types.PlayerOptions;
+import com.spotify.protocol.types.PlayerRestrictions;
+import com.spotify.protocol.types.PlayerState;
+import com.spotify.protocol.types.Track;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link JsonMapper} that reuses the parts of a {@link PlayerState} that did not change.
+ *
+ * <p>Most {@code PlayerState} events only move the position or flip {@code isPaused}. This mapper
+ * compares the JSON of the track, the playback options and the playback restrictions with what it
+ * has decoded recently, and hands back the same {@link Track}, {@link PlayerOptions} and {@link
+ * PlayerRestrictions} instances when they match. Steady state events then only allocate the
+ * {@code PlayerState} itself instead of a new Track, Album, Artist and ImageUri graph, and
+ * unchanged parts can be compared with {@code ==}.
+ *
+ * <p>Everything else is mapped the same way as the default Gson mapper. Opt in with {@code
+ * ConnectionParams.Builder#setJsonMapper(JsonMapper)}.
+ */
+public class InterningJsonMapper implements JsonMapper {
+
+  private static final int INTERNED_PER_TYPE = 8;
+
+  private final Gson mGson;
+  private final Interner<Track> mTracks = new Interner<>(Track.class);
+  private final Interner<PlayerOptions> mOptions = new Interner<>(PlayerOptions.class);
+  private final Interner<PlayerRestrictions> mRestrictions =
+      new Interner<>(PlayerRestrictions.class);
+
+  private final AtomicLong mReused = new AtomicLong();
+  private final AtomicLong mDecoded = new AtomicLong();
+
+  public InterningJsonMapper() {
+    mGson =
+        new GsonBuilder()
+            .registerTypeAdapter(
+                ImageUri.class,
+                (JsonDeserializer<ImageUri>)
+                    (json, type, context) -> new ImageUri(json.getAsString()))
+            .registerTypeAdapter(
+                ImageUri.class,
+                (JsonSerializer<ImageUri>) (src, type, context) -> context.serialize(src.raw))
+            .registerTypeAdapter(
+                byte[].class,
+                (JsonDeserializer<byte[]>)
+                    (json, type, context) ->
+                        Base64.decode(json.getAsJsonPrimitive().getAsString(), Base64.NO_WRAP))
+            .registerTypeAdapter(
+                byte[].class,
+                (JsonSerializer<byte[]>)
+                    (src, type, context) ->
+                        new JsonPrimitive(Base64.encodeToString(src, Base64.NO_WRAP)))
+            .create();
+  }
+
+  @Override
+  public JsonArray toJsonArray(String json) throws JsonMappingException {
+    try {
+      return new GsonJsonArray(mGson.fromJson(json, JsonElement.class).getAsJsonArray());
+    } catch (RuntimeException e) {
+      throw new JsonMappingException(e);
+    }
+  }
+
+  @Override
+  public String toJson(Object object) throws JsonMappingException {
+    try {
+      return mGson.toJson(object);
+    } catch (RuntimeException e) {
+      throw new JsonMappingException(e);
+    }
+  }
+
+  /** Number of sub-objects handed back from a previous event. */
+  public long getReusedCount() {
+    return mReused.get();
+  }
+
+  /** Number of sub-objects that had to be decoded. */
+  public long getDecodedCount() {
+    return mDecoded.get();
+  }
+
+  @SuppressWarnings("unchecked")
+  <T> T decode(JsonElement json, Class<T> type) {
+    if (type == PlayerState.class && json.isJsonObject()) {
+      return (T) decodePlayerState(json.getAsJsonObject());
+    } else if (type == Track.class) {
+      return (T) mTracks.get(json);
+    }
+    return mGson.fromJson(json, type);
+  }
+
+  private PlayerState decodePlayerState(com.google.gson.JsonObject json) {
+    return new PlayerState(
+        mTracks.get(json.get("track")),
+        getBoolean(json, "is_paused"),
+        (float) getDouble(json, "playback_speed"),
+        (long) getDouble(json, "playback_position"),
+        mOptions.get(json.get("playback_options")),
+        mRestrictions.get(json.get("playback_restrictions")));
+  }
+
+  private static boolean getBoolean(com.google.gson.JsonObject json, String name) {
+    JsonElement element = json.get(name);
+    return element != null && !element.isJsonNull() && element.getAsBoolean();
+  }
+
+  private static double getDouble(com.google.gson.JsonObject json, String name) {
+    JsonElement element = json.get(name);
+    return element != null && !element.isJsonNull() ? element.getAsDouble() : 0;
+  }
+
+  /** Recently decoded values of one type, keyed by their JSON. */
+  private final class Interner<T> {
+    private final Class<T> mType;
+
+    private final Map<JsonElement, T> mValues =
+        new LinkedHashMap<JsonElement, T>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<JsonElement, T> eldest) {
+            return size() > INTERNED_PER_TYPE;
+          }
+        };
+
+    Interner(Class<T> type) {
+      mType = type;
+    }
+
+    T get(JsonElement json) {
+      if (json == null || json.isJsonNull()) {
+        return null;
+      }
+      synchronized (mValues) {
+        T value = mValues.get(json);
+        if (value != null) {
+          mReused.incrementAndGet();
+          return value;
+        }
+      }
+      mDecoded.incrementAndGet();
+      T value = mGson.fromJson(json, mType);
+      synchronized (mValues) {
+        mValues.put(json, value);
+      }
+      return value;
+    }
+  }
+
+  private final class GsonJsonArray implements JsonArray {
+    private final com.google.gson.JsonArray mArray;
+
+    GsonJsonArray(com.google.gson.JsonArray array) {
+      mArray = array;
+    }
+
+    @Override
+    public int getIntAt(int index) {
+      return mArray.get(index).getAsInt();
+    }
+
+    @Override
+    public String getStringAt(int index) {
+      return mArray.get(index).getAsString();
+    }
+
+    @Override
+    public JsonObject getObjectAt(int index) {
+      return new GsonJsonObject(mArray.get(index));
+    }
+  }
+
+  private final class GsonJsonObject implements JsonObject {
+    private final JsonElement mElement;
+
+    GsonJsonObject(JsonElement element) {
+      mElement = element;
+    }
+
+    @Override
+    public <T> T getAs(Class<T> type) throws JsonMappingException {
+      try {
+        return decode(mElement, type);
+      } catch (RuntimeException e) {
+        throw new JsonMappingException(e);
+      }
+    }
+
+    @Override
+    public String toJson() throws JsonMappingException {
+      try {
+        return mGson.toJson(mElement);
+      } catch (RuntimeException e) {
+        throw new JsonMappingException(e);
+      }
+    }
+  }
+}
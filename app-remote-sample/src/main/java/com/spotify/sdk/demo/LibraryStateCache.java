@@ -0,0 +1,332 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.spotify.sdk.demo;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.spotify.android.appremote.api.UserApi;
+import com.spotify.protocol.client.CallResult;
+import com.spotify.protocol.client.ResultUtils;
+import com.spotify.protocol.client.Subscription;
+import com.spotify.protocol.types.Empty;
+import com.spotify.protocol.types.LibraryState;
+import com.spotify.protocol.types.UserStatus;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches {@link LibraryState} per URI, so that marking saved items in a list is a memory lookup.
+ *
+ * <p>{@link #getLibraryStates} serves what it can from the cache and looks up the rest in
+ * parallel, one coalesced {@link UserApi#getLibraryState} call per URI, since the Spotify app has
+ * no bulk lookup. Those lookups are {@link CallScheduler.Priority#BACKGROUND BACKGROUND}, so a long
+ * list does not hold up what is on screen; {@link #promote} moves the rows on screen ahead.
+ * {@link #addToLibrary} and {@link #removeFromLibrary} write through to the cache.
+ * Entries expire after a while, because the library can also change in the Spotify app itself,
+ * and are all dropped when the {@link UserStatus} changes or the cache is detached.
+ */
+public class LibraryStateCache {
+
+  private static final String TAG = LibraryStateCache.class.getSimpleName();
+
+  private static final long DEFAULT_TTL_MS = 10 * 60 * 1000;
+  private static final int DEFAULT_MAX_ENTRIES = 1000;
+
+  private static final class Entry {
+    final LibraryState mState;
+    final long mStoredAtMs;
+
+    Entry(LibraryState state, long storedAtMs) {
+      mState = state;
+      mStoredAtMs = storedAtMs;
+    }
+  }
+
+  private final CallCoalescer mCallCoalescer;
+  private final SubscriptionMultiplexer mMultiplexer;
+  private final long mTtlMs;
+  private final int mMaxEntries;
+  private final Map<String, Entry> mEntries;
+
+  private Subscription<UserStatus> mUserStatusSubscription;
+  private UserStatus mUserStatus;
+  /** Bumped on every write and invalidation, so lookups that raced one are not stored. */
+  private long mGeneration;
+
+  private final AtomicLong mHits = new AtomicLong();
+  private final AtomicLong mMisses = new AtomicLong();
+
+  public LibraryStateCache(CallCoalescer callCoalescer, SubscriptionMultiplexer multiplexer) {
+    this(callCoalescer, multiplexer, DEFAULT_TTL_MS, DEFAULT_MAX_ENTRIES);
+  }
+
+  /**
+   * @param ttlMs how long a state is served from the cache after it was stored
+   * @param maxEntries maximum number of URIs kept
+   */
+  public LibraryStateCache(
+      CallCoalescer callCoalescer,
+      SubscriptionMultiplexer multiplexer,
+      long ttlMs,
+      int maxEntries) {
+    mCallCoalescer = callCoalescer;
+    mMultiplexer = multiplexer;
+    mTtlMs = ttlMs;
+    mMaxEntries = maxEntries;
+    mEntries =
+        new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > mMaxEntries;
+          }
+        };
+  }
+
+  /** Starts watching {@link UserStatus}, replacing any previous attachment. */
+  public synchronized void attach() {
+    detach();
+    mUserStatusSubscription = mMultiplexer.subscribe(SubscriptionMultiplexer.USER_STATUS);
+    mUserStatusSubscription
+        .setEventCallback(this::onUserStatus)
+        .setErrorCallback(throwable -> Log.w(TAG, "Subscription failed", throwable));
+  }
+
+  /**
+   * Stops watching {@link UserStatus} and drops every entry, as the next connection may be for
+   * another user.
+   */
+  public synchronized void detach() {
+    if (mUserStatusSubscription != null && !mUserStatusSubscription.isCanceled()) {
+      mUserStatusSubscription.cancel();
+    }
+    mUserStatusSubscription = null;
+    mUserStatus = null;
+    clear();
+  }
+
+  /** Returns the cached state of {@code uri}, or {@code null} if it is not cached or expired. */
+  public synchronized LibraryState get(String uri) {
+    Entry entry = mEntries.get(uri);
+    if (entry == null) {
+      return null;
+    }
+    if (SystemClock.elapsedRealtime() - entry.mStoredAtMs > mTtlMs) {
+      mEntries.remove(uri);
+      return null;
+    }
+    return entry.mState;
+  }
+
+  /** Like {@link UserApi#getLibraryState}, served from the cache while the entry is fresh. */
+  public CallResult<LibraryState> getLibraryState(UserApi userApi, String uri) {
+    LibraryState cached = get(uri);
+    if (cached != null) {
+      mHits.incrementAndGet();
+      return CallResults.completed(cached);
+    }
+    mMisses.incrementAndGet();
+    return load(userApi, uri, CallScheduler.Priority.VISIBLE);
+  }
+
+  /**
+   * Returns the states of {@code uris}, in the order given and without duplicates. Cached states
+   * are used as they are; the rest are looked up in parallel. URIs whose lookup failed are left
+   * out. The result only fails if every lookup failed.
+   */
+  public CallResult<Map<String, LibraryState>> getLibraryStates(
+      UserApi userApi, Collection<String> uris) {
+    final Map<String, LibraryState> states = new LinkedHashMap<>();
+    final List<String> missing = new ArrayList<>();
+    for (String uri : new LinkedHashSet<>(uris)) {
+      LibraryState cached = get(uri);
+      states.put(uri, cached);
+      if (cached == null) {
+        missing.add(uri);
+      }
+    }
+    mHits.addAndGet(states.size() - missing.size());
+    mMisses.addAndGet(missing.size());
+
+    final CallResult<Map<String, LibraryState>> result = CallResults.pending();
+    if (missing.isEmpty()) {
+      result.deliverResult(ResultUtils.createSuccessfulResult(states));
+      return result;
+    }
+    final int[] remaining = {missing.size()};
+    final int[] failed = {0};
+    for (final String uri : missing) {
+      load(userApi, uri, CallScheduler.Priority.BACKGROUND)
+          .setResultCallback(
+              state -> onLoaded(result, states, remaining, failed, uri, state, null))
+          .setErrorCallback(error -> onLoaded(result, states, remaining, failed, uri, null, error));
+    }
+    return result;
+  }
+
+  /**
+   * Moves the lookups of {@code uris} ahead of other bulk lookups, e.g. for the rows of a list that
+   * are on screen. URIs that are not cached and not being looked up yet are looked up right away.
+   */
+  public void promote(UserApi userApi, Collection<String> uris) {
+    for (String uri : uris) {
+      if (get(uri) == null) {
+        // Joins the waiting lookup, which CallCoalescer then promotes.
+        load(userApi, uri, CallScheduler.Priority.VISIBLE);
+      }
+    }
+  }
+
+  /** Like {@link UserApi#addToLibrary}, and marks {@code uri} as added once it succeeded. */
+  public CallResult<Empty> addToLibrary(UserApi userApi, String uri) {
+    return write(
+        uri,
+        new LibraryState(uri, true, true),
+        CallScheduler.getInstance()
+            .schedule(
+                CallScheduler.Priority.INTERACTIVE,
+                "UserApi.addToLibrary",
+                () -> userApi.addToLibrary(uri)));
+  }
+
+  /** Like {@link UserApi#removeFromLibrary}, and marks {@code uri} as removed once it succeeded. */
+  public CallResult<Empty> removeFromLibrary(UserApi userApi, String uri) {
+    return write(
+        uri,
+        new LibraryState(uri, false, true),
+        CallScheduler.getInstance()
+            .schedule(
+                CallScheduler.Priority.INTERACTIVE,
+                "UserApi.removeFromLibrary",
+                () -> userApi.removeFromLibrary(uri)));
+  }
+
+  public synchronized void invalidate(String uri) {
+    mGeneration++;
+    mEntries.remove(uri);
+  }
+
+  public synchronized void clear() {
+    mGeneration++;
+    mEntries.clear();
+  }
+
+  public long getHitCount() {
+    return mHits.get();
+  }
+
+  public long getMissCount() {
+    return mMisses.get();
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format(
+        Locale.US,
+        "LibraryStateCache{entries=%d/%d, hits=%d, misses=%d}",
+        mEntries.size(),
+        mMaxEntries,
+        getHitCount(),
+        getMissCount());
+  }
+
+  private CallResult<LibraryState> load(
+      UserApi userApi, String uri, CallScheduler.Priority priority) {
+    final long generation;
+    synchronized (this) {
+      generation = mGeneration;
+    }
+    CallResult<LibraryState> result = CallResults.pending();
+    mCallCoalescer
+        .getLibraryState(userApi, uri, priority)
+        .setResultCallback(
+            state -> {
+              synchronized (this) {
+                if (generation == mGeneration) {
+                  mEntries.put(uri, new Entry(state, SystemClock.elapsedRealtime()));
+                }
+              }
+              result.deliverResult(ResultUtils.createSuccessfulResult(state));
+            })
+        .setErrorCallback(result::deliverError);
+    return result;
+  }
+
+  private CallResult<Empty> write(String uri, LibraryState state, CallResult<Empty> call) {
+    invalidate(uri);
+    CallResult<Empty> result = CallResults.pending();
+    call.setResultCallback(
+            empty -> {
+              synchronized (this) {
+                mGeneration++;
+                mEntries.put(uri, new Entry(state, SystemClock.elapsedRealtime()));
+              }
+              result.deliverResult(ResultUtils.createSuccessfulResult(empty));
+            })
+        .setErrorCallback(result::deliverError);
+    return result;
+  }
+
+  private void onLoaded(
+      CallResult<Map<String, LibraryState>> result,
+      Map<String, LibraryState> states,
+      int[] remaining,
+      int[] failed,
+      String uri,
+      LibraryState state,
+      Throwable error) {
+    boolean done;
+    synchronized (states) {
+      if (error != null) {
+        failed[0]++;
+        states.remove(uri);
+      } else {
+        states.put(uri, state);
+      }
+      done = --remaining[0] == 0;
+    }
+    if (!done) {
+      return;
+    }
+    if (states.isEmpty() && failed[0] > 0) {
+      result.deliverError(error);
+    } else {
+      result.deliverResult(ResultUtils.createSuccessfulResult(states));
+    }
+  }
+
+  private synchronized void onUserStatus(UserStatus userStatus) {
+    UserStatus previous = mUserStatus;
+    mUserStatus = userStatus;
+    if (previous != null && !previous.equals(userStatus)) {
+      clear();
+    }
+  }
+}
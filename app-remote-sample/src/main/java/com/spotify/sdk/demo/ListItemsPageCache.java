@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.spotify.sdk.demo;
+
+import android.os.SystemClock;
+
+import com.spotify.android.appremote.api.ContentApi;
+import com.spotify.protocol.client.CallResult;
+import com.spotify.protocol.client.ResultUtils;
+import com.spotify.protocol.types.ListItem;
+import com.spotify.protocol.types.ListItems;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches pages returned by {@link ContentApi#getChildrenOfItem(ListItem, int, int)}.
+ *
+ * <p>Pages are keyed by the parent's {@link ListItem#id}, offset and page size. They expire after a
+ * TTL, and the least recently used page is evicted once the cache holds more than its maximum
+ * number of pages. {@link #onItemShown} prefetches the next page when the user scrolls close to
+ * the end of the current one, so it is usually cached by the time it is needed.
+ */
+public class ListItemsPageCache {
+
+  private static final long DEFAULT_TTL_MS = 5 * 60 * 1000;
+  private static final int DEFAULT_MAX_PAGES = 64;
+  private static final int DEFAULT_PREFETCH_DISTANCE = 5;
+  private static final long LOAD_DEADLINE_MS = 10000;
+  private static final String KEY_PREFIX = "ContentApi.getChildrenOfItem:";
+
+  private static final class Entry {
+    final ListItems mPage;
+    final long mLoadedAtMs;
+
+    Entry(ListItems page, long loadedAtMs) {
+      mPage = page;
+      mLoadedAtMs = loadedAtMs;
+    }
+  }
+
+  private final long mTtlMs;
+  private final int mMaxPages;
+  private final int mPrefetchDistance;
+  private final Map<String, Entry> mPages;
+  private final CallCoalescer mCallCoalescer;
+
+  private final AtomicLong mHits = new AtomicLong();
+  private final AtomicLong mMisses = new AtomicLong();
+  private final AtomicLong mPrefetches = new AtomicLong();
+
+  public ListItemsPageCache(CallCoalescer callCoalescer) {
+    this(callCoalescer, DEFAULT_TTL_MS, DEFAULT_MAX_PAGES, DEFAULT_PREFETCH_DISTANCE);
+  }
+
+  /**
+   * @param callCoalescer shared with other readers, so identical loads go out once
+   * @param ttlMs how long a page is served from the cache after it was loaded
+   * @param maxPages maximum number of pages kept
+   * @param prefetchDistance how many items before the end of a page the next page is prefetched
+   */
+  public ListItemsPageCache(
+      CallCoalescer callCoalescer, long ttlMs, int maxPages, int prefetchDistance) {
+    mCallCoalescer = callCoalescer;
+    mTtlMs = ttlMs;
+    mMaxPages = maxPages;
+    mPrefetchDistance = prefetchDistance;
+    mPages =
+        new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > mMaxPages;
+          }
+        };
+  }
+
+  /** Like {@link ContentApi#getChildrenOfItem}, served from the cache while the page is fresh. */
+  public CallResult<ListItems> getChildrenOfItem(
+      ContentApi contentApi, ListItem parent, int perPage, int offset) {
+    return getChildrenOfItem(contentApi, parent, perPage, offset, CallScheduler.Priority.VISIBLE);
+  }
+
+  /** Like {@link #getChildrenOfItem}, loaded by {@link CallScheduler} with {@code priority}. */
+  public CallResult<ListItems> getChildrenOfItem(
+      ContentApi contentApi,
+      ListItem parent,
+      int perPage,
+      int offset,
+      CallScheduler.Priority priority) {
+    final String key = keyOf(parent, perPage, offset);
+    ListItems cached = get(key);
+    if (cached != null) {
+      mHits.incrementAndGet();
+      return CallResults.completed(cached);
+    }
+    mMisses.incrementAndGet();
+
+    CallResult<ListItems> result = CallResults.pending();
+    load(contentApi, parent, perPage, offset, key, priority)
+        .setResultCallback(page -> result.deliverResult(ResultUtils.createSuccessfulResult(page)))
+        .setErrorCallback(result::deliverError);
+    return result;
+  }
+
+  /**
+   * Tells the cache that the item at {@code position} of {@code page} became visible. When it is
+   * close to the end of the page and there are more children, the next page is loaded in the
+   * background.
+   */
+  public void onItemShown(ContentApi contentApi, ListItem parent, ListItems page, int position) {
+    if (page.items != null && position >= page.items.length - mPrefetchDistance) {
+      prefetchNextPage(contentApi, parent, page);
+    }
+  }
+
+  /** Loads the page after {@code page} into the cache, unless it is already there. */
+  public void prefetchNextPage(ContentApi contentApi, ListItem parent, ListItems page) {
+    if (page.items == null || page.items.length == 0) {
+      return;
+    }
+    int perPage = page.limit > 0 ? page.limit : page.items.length;
+    int nextOffset = page.offset + page.items.length;
+    if (page.total > 0 && nextOffset >= page.total) {
+      return;
+    }
+    String key = keyOf(parent, perPage, nextOffset);
+    if (get(key) == null) {
+      mPrefetches.incrementAndGet();
+      load(contentApi, parent, perPage, nextOffset, key, CallScheduler.Priority.BACKGROUND);
+    }
+  }
+
+  /** Drops every cached page below {@code parent}. */
+  public synchronized void invalidate(ListItem parent) {
+    String prefix = KEY_PREFIX + parent.id + "@";
+    Iterator<String> keys = mPages.keySet().iterator();
+    while (keys.hasNext()) {
+      if (keys.next().startsWith(prefix)) {
+        keys.remove();
+      }
+    }
+  }
+
+  public synchronized void clear() {
+    mPages.clear();
+  }
+
+  public long getHitCount() {
+    return mHits.get();
+  }
+
+  public long getMissCount() {
+    return mMisses.get();
+  }
+
+  public long getPrefetchCount() {
+    return mPrefetches.get();
+  }
+
+  private CallResult<ListItems> load(
+      ContentApi contentApi,
+      ListItem parent,
+      int perPage,
+      int offset,
+      String key,
+      CallScheduler.Priority priority) {
+    CallResult<ListItems> result =
+        mCallCoalescer.call(
+            "ContentApi.getChildrenOfItem",
+            key,
+            priority,
+            () ->
+                CallDeadlines.hedged(
+                    "ContentApi.getChildrenOfItem",
+                    () -> contentApi.getChildrenOfItem(parent, perPage, offset),
+                    LOAD_DEADLINE_MS));
+    CallResult<ListItems> stored = CallResults.pending();
+    result
+        .setResultCallback(
+            page -> {
+              put(key, page);
+              stored.deliverResult(ResultUtils.createSuccessfulResult(page));
+            })
+        .setErrorCallback(stored::deliverError);
+    return stored;
+  }
+
+  private synchronized ListItems get(String key) {
+    Entry entry = mPages.get(key);
+    if (entry == null) {
+      return null;
+    }
+    if (SystemClock.elapsedRealtime() - entry.mLoadedAtMs > mTtlMs) {
+      mPages.remove(key);
+      return null;
+    }
+    return entry.mPage;
+  }
+
+  private synchronized void put(String key, ListItems page) {
+    mPages.put(key, new Entry(page, SystemClock.elapsedRealtime()));
+  }
+
+  private static String keyOf(ListItem parent, int perPage, int offset) {
+    return KEY_PREFIX + parent.id + "@" + offset + "+" + perPage;
+  }
+}
@@ -0,0 +1,350 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.spotify.sdk.demo;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.spotify.protocol.client.CallResult;
+import com.spotify.protocol.client.ResultUtils;
+import com.spotify.protocol.client.Subscription;
+import com.spotify.protocol.types.PlayerOptions;
+import com.spotify.protocol.types.PlayerState;
+import com.spotify.protocol.types.Repeat;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Shows the expected effect of a player command before the Spotify app confirms it.
+ *
+ * <p>Sits between a {@code Subscription<PlayerState>} and the callback that renders it. When a
+ * command is issued through {@link #apply(Edit, CallResult)}, its {@link Edit} is applied to the
+ * latest state from the Spotify app and the result is passed on right away. Edits stay applied on
+ * top of every following event until an event reflects them. If the command fails, or succeeds
+ * but no event reflects it within {@link #SETTLE_TIMEOUT_MS}, the edit is dropped and the
+ * state from the Spotify app is passed on again.
+ *
+ * <p>Edits set absolute values, so an event that arrives before the command took effect simply
+ * gets the edit applied again. Not thread safe, use it from the main thread.
+ */
+public class OptimisticPlayerState implements Subscription.EventCallback<PlayerState> {
+
+  /** How long an edit may stay unconfirmed after its command succeeded. */
+  static final long SETTLE_TIMEOUT_MS = 1000;
+
+  /** Commands that get no reply within this time count as failed. */
+  static final long COMMAND_DEADLINE_MS = 5000;
+
+  /** How close a position has to be to the seek target to count as reflecting it. */
+  private static final long SEEK_TOLERANCE_MS = 2000;
+
+  /** The expected effect of a command on the player state. */
+  public interface Edit {
+
+    PlayerState apply(PlayerState playerState);
+
+    /** Whether {@code playerState} already shows the effect of this edit. */
+    boolean isReflectedIn(PlayerState playerState);
+  }
+
+  private static final class Pending {
+    final Edit mEdit;
+    final long mAppliedAtMs;
+    /** Set once the command succeeded. */
+    Runnable mExpire;
+
+    Pending(Edit edit, long appliedAtMs) {
+      mEdit = edit;
+      mAppliedAtMs = appliedAtMs;
+    }
+  }
+
+  private final Subscription.EventCallback<PlayerState> mCallback;
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+  private final List<Pending> mPending = new ArrayList<>();
+
+  private PlayerState mConfirmed;
+  private long mConfirmedAtMs;
+  private PlayerState mDisplayed;
+
+  private long mApplied;
+  private long mConfirmedEdits;
+  private long mRolledBack;
+  private long mExpired;
+  private long mSumConfirmMs;
+
+  public OptimisticPlayerState(Subscription.EventCallback<PlayerState> callback) {
+    mCallback = callback;
+  }
+
+  /** Edit that pauses or resumes playback. */
+  public static Edit setPaused(boolean paused) {
+    return new Edit() {
+      @Override
+      public PlayerState apply(PlayerState s) {
+        return new PlayerState(
+            s.track,
+            paused,
+            s.playbackSpeed,
+            s.playbackPosition,
+            s.playbackOptions,
+            s.playbackRestrictions);
+      }
+
+      @Override
+      public boolean isReflectedIn(PlayerState s) {
+        return s.isPaused == paused;
+      }
+    };
+  }
+
+  public static Edit setShuffle(boolean shuffle) {
+    return new Edit() {
+      @Override
+      public PlayerState apply(PlayerState s) {
+        return new PlayerState(
+            s.track,
+            s.isPaused,
+            s.playbackSpeed,
+            s.playbackPosition,
+            new PlayerOptions(shuffle, repeatModeOf(s)),
+            s.playbackRestrictions);
+      }
+
+      @Override
+      public boolean isReflectedIn(PlayerState s) {
+        return s.playbackOptions != null && s.playbackOptions.isShuffling == shuffle;
+      }
+    };
+  }
+
+  /** Edit that sets the repeat mode, one of the {@link Repeat} constants. */
+  public static Edit setRepeat(int repeatMode) {
+    return new Edit() {
+      @Override
+      public PlayerState apply(PlayerState s) {
+        boolean shuffle = s.playbackOptions != null && s.playbackOptions.isShuffling;
+        return new PlayerState(
+            s.track,
+            s.isPaused,
+            s.playbackSpeed,
+            s.playbackPosition,
+            new PlayerOptions(shuffle, repeatMode),
+            s.playbackRestrictions);
+      }
+
+      @Override
+      public boolean isReflectedIn(PlayerState s) {
+        return repeatModeOf(s) == repeatMode;
+      }
+    };
+  }
+
+  public static Edit seekTo(long positionMs) {
+    return new Edit() {
+      @Override
+      public PlayerState apply(PlayerState s) {
+        long position = Math.max(0, positionMs);
+        if (s.track != null && s.track.duration > 0) {
+          position = Math.min(position, s.track.duration);
+        }
+        return new PlayerState(
+            s.track,
+            s.isPaused,
+            s.playbackSpeed,
+            position,
+            s.playbackOptions,
+            s.playbackRestrictions);
+      }
+
+      @Override
+      public boolean isReflectedIn(PlayerState s) {
+        return Math.abs(s.playbackPosition - positionMs) <= SEEK_TOLERANCE_MS;
+      }
+    };
+  }
+
+  /**
+   * The repeat mode the Spotify app switches to when repeat is toggled in {@code playerState}: off,
+   * then the whole context, then the current track. Modes the restrictions do not allow are
+   * skipped.
+   */
+  public static int nextRepeatMode(PlayerState playerState) {
+    boolean canRepeatContext =
+        playerState.playbackRestrictions == null
+            || playerState.playbackRestrictions.canRepeatContext;
+    boolean canRepeatTrack =
+        playerState.playbackRestrictions == null
+            || playerState.playbackRestrictions.canRepeatTrack;
+    switch (repeatModeOf(playerState)) {
+      case Repeat.OFF:
+        return canRepeatContext ? Repeat.ALL : canRepeatTrack ? Repeat.ONE : Repeat.OFF;
+      case Repeat.ALL:
+        return canRepeatTrack ? Repeat.ONE : Repeat.OFF;
+      default:
+        return Repeat.OFF;
+    }
+  }
+
+  /**
+   * Shows the effect of {@code edit} right away and keeps it until the outcome of {@code command}
+   * is known. Returns a result with the outcome of {@code command}; set callbacks on the returned
+   * result, not on {@code command}.
+   *
+   * <p>Before the first event there is nothing to edit, and only the command is issued.
+   */
+  public <T> CallResult<T> apply(Edit edit, CallResult<T> command) {
+    final CallResult<T> result = CallResults.pending();
+    final Pending pending;
+    if (mConfirmed != null) {
+      pending = new Pending(edit, SystemClock.elapsedRealtime());
+      mPending.add(pending);
+      mApplied++;
+      publish();
+    } else {
+      pending = null;
+    }
+    CallDeadlines.withDeadline(command, COMMAND_DEADLINE_MS)
+        .setResultCallback(
+            data -> {
+              if (pending != null) {
+                onCommandSucceeded(pending);
+              }
+              result.deliverResult(ResultUtils.createSuccessfulResult(data));
+            })
+        .setErrorCallback(
+            error -> {
+              if (pending != null && mPending.remove(pending)) {
+                if (pending.mExpire != null) {
+                  mHandler.removeCallbacks(pending.mExpire);
+                }
+                mRolledBack++;
+                publish();
+              }
+              result.deliverError(error);
+            });
+    return result;
+  }
+
+  @Override
+  public void onEvent(PlayerState playerState) {
+    long now = SystemClock.elapsedRealtime();
+    mConfirmed = playerState;
+    mConfirmedAtMs = now;
+    Iterator<Pending> it = mPending.iterator();
+    while (it.hasNext()) {
+      Pending pending = it.next();
+      if (pending.mEdit.isReflectedIn(playerState)) {
+        it.remove();
+        if (pending.mExpire != null) {
+          mHandler.removeCallbacks(pending.mExpire);
+        }
+        mConfirmedEdits++;
+        mSumConfirmMs += now - pending.mAppliedAtMs;
+      }
+    }
+    publish();
+  }
+
+  /** The state that was passed on last, with pending edits applied. */
+  public PlayerState getPlayerState() {
+    return mDisplayed;
+  }
+
+  /** Drops every pending edit and the latest state, e.g. before subscribing again. */
+  public void reset() {
+    for (Pending pending : mPending) {
+      if (pending.mExpire != null) {
+        mHandler.removeCallbacks(pending.mExpire);
+      }
+    }
+    mPending.clear();
+    mConfirmed = null;
+    mDisplayed = null;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        Locale.US,
+        "OptimisticPlayerState{applied=%d, confirmed=%d, rolledBack=%d, expired=%d,"
+            + " meanConfirmMs=%d, pending=%d}",
+        mApplied,
+        mConfirmedEdits,
+        mRolledBack,
+        mExpired,
+        mConfirmedEdits > 0 ? mSumConfirmMs / mConfirmedEdits : 0,
+        mPending.size());
+  }
+
+  private void onCommandSucceeded(Pending pending) {
+    if (!mPending.contains(pending)) {
+      // Already reflected by an event.
+      return;
+    }
+    pending.mExpire =
+        () -> {
+          if (mPending.remove(pending)) {
+            mExpired++;
+            publish();
+          }
+        };
+    mHandler.postDelayed(pending.mExpire, SETTLE_TIMEOUT_MS);
+  }
+
+  private void publish() {
+    if (mConfirmed == null) {
+      return;
+    }
+    PlayerState state = rebase(mConfirmed, SystemClock.elapsedRealtime() - mConfirmedAtMs);
+    for (Pending pending : mPending) {
+      state = pending.mEdit.apply(state);
+    }
+    mDisplayed = state;
+    mCallback.onEvent(mDisplayed);
+  }
+
+  /** {@code playerState} with its position advanced by {@code elapsedMs} of playback. */
+  private static PlayerState rebase(PlayerState playerState, long elapsedMs) {
+    if (playerState.isPaused || elapsedMs <= 0) {
+      return playerState;
+    }
+    return new PlayerState(
+        playerState.track,
+        playerState.isPaused,
+        playerState.playbackSpeed,
+        playerState.playbackPosition + (long) (elapsedMs * playerState.playbackSpeed),
+        playerState.playbackOptions,
+        playerState.playbackRestrictions);
+  }
+
+  private static int repeatModeOf(PlayerState playerState) {
+    return playerState.playbackOptions != null
+        ? playerState.playbackOptions.repeatMode
+        : Repeat.OFF;
+  }
+}
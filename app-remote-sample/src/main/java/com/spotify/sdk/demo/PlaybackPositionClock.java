@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.spotify.sdk.demo;
+
+import android.os.SystemClock;
+
+import com.spotify.protocol.types.PlayerState;
+
+/**
+ * Extrapolates the playback position between {@link PlayerState} events.
+ *
+ * <p>Each event anchors the clock at its position, speed and arrival time. {@link #getPosition()}
+ * computes the current position from the anchor on demand, so there is nothing to tick. When the
+ * next event arrives, the difference between its position and the extrapolated one is recorded as
+ * drift.
+ */
+public class PlaybackPositionClock {
+
+  /** Differences larger than this are seeks rather than drift, and are not recorded. */
+  private static final long SEEK_THRESHOLD_MS = 3000;
+
+  private static final class Anchor {
+    final String mTrackUri;
+    final long mPositionMs;
+    final long mDurationMs;
+    final long mTimeMs;
+    final float mSpeed;
+
+    Anchor(PlayerState playerState, long timeMs) {
+      mTrackUri = playerState.track != null ? playerState.track.uri : null;
+      mPositionMs = playerState.playbackPosition;
+      mDurationMs = playerState.track != null ? playerState.track.duration : 0;
+      mTimeMs = timeMs;
+      mSpeed = playerState.isPaused ? 0 : playerState.playbackSpeed;
+    }
+
+    long positionAt(long timeMs) {
+      long position = mPositionMs + (long) (Math.max(0, timeMs - mTimeMs) * mSpeed);
+      return mDurationMs > 0 ? Math.min(position, mDurationMs) : position;
+    }
+  }
+
+  private volatile Anchor mAnchor;
+
+  private long mDriftSamples;
+  private long mDriftSumMs;
+  private long mMaxDriftMs;
+  private long mLastDriftMs;
+
+  /** Anchors the clock at {@code playerState}, as received now. */
+  public void update(PlayerState playerState) {
+    update(playerState, SystemClock.elapsedRealtime());
+  }
+
+  /**
+   * Anchors the clock at {@code playerState}.
+   *
+   * @param eventTimeMs when the event was received, in {@link SystemClock#elapsedRealtime()} time
+   */
+  public synchronized void update(PlayerState playerState, long eventTimeMs) {
+    Anchor previous = mAnchor;
+    Anchor next = new Anchor(playerState, eventTimeMs);
+    if (previous != null
+        && previous.mSpeed > 0
+        && previous.mTrackUri != null
+        && previous.mTrackUri.equals(next.mTrackUri)) {
+      long drift = next.mPositionMs - previous.positionAt(eventTimeMs);
+      if (Math.abs(drift) <= SEEK_THRESHOLD_MS) {
+        mDriftSamples++;
+        mDriftSumMs += Math.abs(drift);
+        mMaxDriftMs = Math.max(mMaxDriftMs, Math.abs(drift));
+        mLastDriftMs = drift;
+      }
+    }
+    mAnchor = next;
+  }
+
+  /** Forgets the anchor and the drift statistics. */
+  public synchronized void reset() {
+    mAnchor = null;
+    mDriftSamples = 0;
+    mDriftSumMs = 0;
+    mMaxDriftMs = 0;
+    mLastDriftMs = 0;
+  }
+
+  /** Returns the extrapolated position in milliseconds, or 0 before the first event. */
+  public long getPosition() {
+    return getPosition(SystemClock.elapsedRealtime());
+  }
+
+  /** Returns the position extrapolated to {@code timeMs}, in elapsed realtime. */
+  public long getPosition(long timeMs) {
+    Anchor anchor = mAnchor;
+    return anchor != null ? anchor.positionAt(timeMs) : 0;
+  }
+
+  public long getDuration() {
+    Anchor anchor = mAnchor;
+    return anchor != null ? anchor.mDurationMs : 0;
+  }
+
+  /** Returns the rate at which the position advances, 0 while paused. */
+  public float getSpeed() {
+    Anchor anchor = mAnchor;
+    return anchor != null ? anchor.mSpeed : 0;
+  }
+
+  public boolean isAdvancing() {
+    return getSpeed() > 0;
+  }
+
+  /** Number of events that were compared against the extrapolated position. */
+  public synchronized long getDriftSampleCount() {
+    return mDriftSamples;
+  }
+
+  public synchronized long getMeanAbsoluteDriftMs() {
+    return mDriftSamples > 0 ? mDriftSumMs / mDriftSamples : 0;
+  }
+
+  public synchronized long getMaxAbsoluteDriftMs() {
+    return mMaxDriftMs;
+  }
+
+  /** Signed drift of the latest sample, positive when playback was ahead of the clock. */
+  public synchronized long getLastDriftMs() {
+    return mLastDriftMs;
+  }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.spotify.sdk.demo;
+
+import android.os.SystemClock;
+
+import com.spotify.android.appremote.api.PlayerApi;
+import com.spotify.protocol.client.CallResult;
+import com.spotify.protocol.client.ResultUtils;
+import com.spotify.protocol.types.Empty;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Issues a sequence of {@link PlayerApi} commands and reports their outcomes together.
+ *
+ * <pre>
+ *   new PlayerCommandBatch(playerApi)
+ *       .queue(firstUri)
+ *       .queue(secondUri)
+ *       .skipNext()
+ *       .commit()
+ *       .setResultCallback(result -> ...);
+ * </pre>
+ *
+ * <p>The App Remote protocol has no message that carries several commands, so every command is
+ * still its own call. {@link #commit()} hands them to {@link CallScheduler} in order as {@link
+ * CallScheduler.Priority#INTERACTIVE INTERACTIVE} calls, which keeps a long batch within that
+ * class's in-flight limit instead of flooding the connection. The result lists the outcome of
+ * every command once all replies have arrived. A failing command does not stop the ones after
+ * it, and a command whose reply does not arrive within {@link #COMMAND_DEADLINE_MS} is reported
+ * as failed, so the batch always completes.
+ */
+public class PlayerCommandBatch {
+
+  /** Time after a command is issued that it counts as failed without a reply. */
+  public static final long COMMAND_DEADLINE_MS = 5000;
+
+  /** Outcome of a single command in a batch. */
+  public static final class CommandResult {
+    public final String name;
+    /** Null if the command succeeded. */
+    public final Throwable error;
+    /** Time from committing the batch until this command's reply arrived. */
+    public final long latencyMs;
+
+    CommandResult(String name, Throwable error, long latencyMs) {
+      this.name = name;
+      this.error = error;
+      this.latencyMs = latencyMs;
+    }
+
+    public boolean isSuccessful() {
+      return error == null;
+    }
+
+    @Override
+    public String toString() {
+      return name + (error == null ? " ok" : " failed: " + error) + " in " + latencyMs + "ms";
+    }
+  }
+
+  /** Outcome of a whole batch, in the order the commands were added. */
+  public static final class Result {
+    public final List<CommandResult> commands;
+    /** Time from committing the batch until the last reply arrived. */
+    public final long totalLatencyMs;
+
+    Result(List<CommandResult> commands, long totalLatencyMs) {
+      this.commands = Collections.unmodifiableList(commands);
+      this.totalLatencyMs = totalLatencyMs;
+    }
+
+    public int getFailureCount() {
+      int failures = 0;
+      for (CommandResult command : commands) {
+        if (!command.isSuccessful()) {
+          failures++;
+        }
+      }
+      return failures;
+    }
+
+    @Override
+    public String toString() {
+      return "Result{" + commands + ", total " + totalLatencyMs + "ms}";
+    }
+  }
+
+  private static final class Command {
+    final String mMethod;
+    final String mName;
+    final RemoteCall<Empty> mCall;
+
+    Command(String method, String name, RemoteCall<Empty> call) {
+      mMethod = method;
+      mName = name;
+      mCall = call;
+    }
+  }
+
+  private final PlayerApi mPlayerApi;
+  private final List<Command> mCommands = new ArrayList<>();
+  private boolean mCommitted;
+
+  public PlayerCommandBatch(PlayerApi playerApi) {
+    mPlayerApi = playerApi;
+  }
+
+  public PlayerCommandBatch play(String uri) {
+    return add("play", "play " + uri, () -> mPlayerApi.play(uri));
+  }
+
+  public PlayerCommandBatch queue(String uri) {
+    return add("queue", "queue " + uri, () -> mPlayerApi.queue(uri));
+  }
+
+  public PlayerCommandBatch resume() {
+    return add("resume", "resume", mPlayerApi::resume);
+  }
+
+  public PlayerCommandBatch pause() {
+    return add("pause", "pause", mPlayerApi::pause);
+  }
+
+  public PlayerCommandBatch skipNext() {
+    return add("skipNext", "skipNext", mPlayerApi::skipNext);
+  }
+
+  public PlayerCommandBatch skipPrevious() {
+    return add("skipPrevious", "skipPrevious", mPlayerApi::skipPrevious);
+  }
+
+  public PlayerCommandBatch skipToIndex(String uri, int index) {
+    return add(
+        "skipToIndex",
+        "skipToIndex " + uri + " " + index,
+        () -> mPlayerApi.skipToIndex(uri, index));
+  }
+
+  public PlayerCommandBatch setShuffle(boolean enabled) {
+    return add("setShuffle", "setShuffle " + enabled, () -> mPlayerApi.setShuffle(enabled));
+  }
+
+  public PlayerCommandBatch setRepeat(int repeatMode) {
+    return add("setRepeat", "setRepeat " + repeatMode, () -> mPlayerApi.setRepeat(repeatMode));
+  }
+
+  public PlayerCommandBatch seekTo(long positionMs) {
+    return add("seekTo", "seekTo " + positionMs, () -> mPlayerApi.seekTo(positionMs));
+  }
+
+  /** Number of commands added so far. */
+  public int size() {
+    return mCommands.size();
+  }
+
+  /**
+   * Sends every command and returns a result that completes once all of them have replied. The
+   * result itself never fails, failures are reported per command.
+   *
+   * @throws IllegalStateException if the batch was already committed
+   */
+  public CallResult<Result> commit() {
+    if (mCommitted) {
+      throw new IllegalStateException("Batch already committed");
+    }
+    mCommitted = true;
+
+    final int count = mCommands.size();
+    if (count == 0) {
+      return CallResults.completed(new Result(new ArrayList<>(), 0));
+    }
+
+    final CallResult<Result> result = CallResults.pending();
+    final CommandResult[] results = new CommandResult[count];
+    final int[] remaining = {count};
+    final long start = SystemClock.elapsedRealtime();
+
+    CallScheduler scheduler = CallScheduler.getInstance();
+    for (int i = 0; i < count; i++) {
+      final int index = i;
+      final Command command = mCommands.get(i);
+      scheduler
+          .schedule(
+              CallScheduler.Priority.INTERACTIVE,
+              command.mMethod,
+              () -> CallDeadlines.withDeadline(command.mCall.call(), COMMAND_DEADLINE_MS))
+          .setResultCallback(
+              empty -> onCommandDone(result, results, remaining, start, index, command, null))
+          .setErrorCallback(
+              error -> onCommandDone(result, results, remaining, start, index, command, error));
+    }
+    return result;
+  }
+
+  private PlayerCommandBatch add(String operation, String name, RemoteCall<Empty> call) {
+    if (mCommitted) {
+      throw new IllegalStateException("Batch already committed");
+    }
+    mCommands.add(new Command("PlayerApi." + operation, name, call));
+    return this;
+  }
+
+  private static void onCommandDone(
+      CallResult<Result> result,
+      CommandResult[] results,
+      int[] remaining,
+      long start,
+      int index,
+      Command command,
+      Throwable error) {
+    long now = SystemClock.elapsedRealtime();
+    boolean done;
+    synchronized (results) {
+      if (results[index] != null) {
+        return;
+      }
+      results[index] = new CommandResult(command.mName, error, now - start);
+      done = --remaining[0] == 0;
+    }
+    if (done) {
+      List<CommandResult> commands = new ArrayList<>(results.length);
+      Collections.addAll(commands, results);
+      result.deliverResult(ResultUtils.createSuccessfulResult(new Result(commands, now - start)));
+    }
+  }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.spotify.sdk.demo;
+
+import android.os.SystemClock;
+
+import com.spotify.protocol.client.Subscription;
+import com.spotify.protocol.types.PlayerState;
+
+/**
+ * Compares each {@link PlayerState} event with the previous one and tells the listener which
+ * fields changed.
+ *
+ * <p>Set it as the event callback of a {@code Subscription<PlayerState>}. Events that change
+ * nothing the listener can observe are dropped. Playback position advances on its own during
+ * playback, so the position is only reported when it moved away from where the previous event
+ * says it should be.
+ */
+public class PlayerStateDiffer implements Subscription.EventCallback<PlayerState> {
+
+  /** How far the position may drift from the extrapolated one before it counts as a jump. */
+  private static final long DEFAULT_POSITION_TOLERANCE_MS = 1000;
+
+  public interface Listener {
+    void onPlayerStateChanged(PlayerState playerState, Changes changes);
+  }
+
+  /** The set of fields that differ from the previous event. */
+  public static final class Changes {
+
+    static final int TRACK = 1;
+    static final int PLAYBACK_OPTIONS = 1 << 1;
+    static final int PLAYBACK_RESTRICTIONS = 1 << 2;
+    static final int PAUSED = 1 << 3;
+    static final int SPEED = 1 << 4;
+    static final int POSITION = 1 << 5;
+
+    static final Changes NONE = new Changes(0);
+    static final Changes ALL =
+        new Changes(TRACK | PLAYBACK_OPTIONS | PLAYBACK_RESTRICTIONS | PAUSED | SPEED | POSITION);
+
+    private final int mFlags;
+
+    Changes(int flags) {
+      mFlags = flags;
+    }
+
+    /** The track, or any of its metadata, changed. */
+    public boolean trackChanged() {
+      return (mFlags & TRACK) != 0;
+    }
+
+    /** Shuffle or repeat mode changed. */
+    public boolean playbackOptionsChanged() {
+      return (mFlags & PLAYBACK_OPTIONS) != 0;
+    }
+
+    public boolean playbackRestrictionsChanged() {
+      return (mFlags & PLAYBACK_RESTRICTIONS) != 0;
+    }
+
+    public boolean pausedChanged() {
+      return (mFlags & PAUSED) != 0;
+    }
+
+    public boolean speedChanged() {
+      return (mFlags & SPEED) != 0;
+    }
+
+    /** The position does not follow from the previous event, e.g. after a seek. */
+    public boolean positionJumped() {
+      return (mFlags & POSITION) != 0;
+    }
+
+    public boolean isEmpty() {
+      return mFlags == 0;
+    }
+
+    @Override
+    public String toString() {
+      return "Changes{"
+          + (trackChanged() ? " track" : "")
+          + (playbackOptionsChanged() ? " options" : "")
+          + (playbackRestrictionsChanged() ? " restrictions" : "")
+          + (pausedChanged() ? " paused" : "")
+          + (speedChanged() ? " speed" : "")
+          + (positionJumped() ? " position" : "")
+          + " }";
+    }
+  }
+
+  private final Listener mListener;
+  private final long mPositionToleranceMs;
+
+  private final PlaybackPositionClock mPositionClock = new PlaybackPositionClock();
+
+  private PlayerState mPrevious;
+
+  public PlayerStateDiffer(Listener listener) {
+    this(listener, DEFAULT_POSITION_TOLERANCE_MS);
+  }
+
+  public PlayerStateDiffer(Listener listener, long positionToleranceMs) {
+    mListener = listener;
+    mPositionToleranceMs = positionToleranceMs;
+  }
+
+  /** Forgets the previous event, so the next one is reported with every field changed. */
+  public synchronized void reset() {
+    mPrevious = null;
+    mPositionClock.reset();
+  }
+
+  /** Returns the clock that is anchored at every event this differ receives. */
+  public PlaybackPositionClock getPositionClock() {
+    return mPositionClock;
+  }
+
+  @Override
+  public void onEvent(PlayerState playerState) {
+    Changes changes;
+    synchronized (this) {
+      long now = SystemClock.elapsedRealtime();
+      changes = diff(mPrevious, playerState, mPositionClock.getPosition(now));
+      mPrevious = playerState;
+      mPositionClock.update(playerState, now);
+    }
+    if (!changes.isEmpty()) {
+      mListener.onPlayerStateChanged(playerState, changes);
+    }
+  }
+
+  private Changes diff(PlayerState previous, PlayerState current, long expectedPosition) {
+    if (previous == null) {
+      return Changes.ALL;
+    }
+    int flags = 0;
+    if (!equal(previous.track, current.track)) {
+      flags |= Changes.TRACK;
+    }
+    if (!equal(previous.playbackOptions, current.playbackOptions)) {
+      flags |= Changes.PLAYBACK_OPTIONS;
+    }
+    if (!equal(previous.playbackRestrictions, current.playbackRestrictions)) {
+      flags |= Changes.PLAYBACK_RESTRICTIONS;
+    }
+    if (previous.isPaused != current.isPaused) {
+      flags |= Changes.PAUSED;
+    }
+    if (previous.playbackSpeed != current.playbackSpeed) {
+      flags |= Changes.SPEED;
+    }
+    if ((flags & Changes.TRACK) != 0
+        || Math.abs(current.playbackPosition - expectedPosition) > mPositionToleranceMs) {
+      flags |= Changes.POSITION;
+    }
+    return flags == 0 ? Changes.NONE : new Changes(flags);
+  }
+
+  private static boolean equal(Object a, Object b) {
+    // Same instance is the common case with InterningJsonMapper and skips the deep compare.
+    return a == b || (a != null && a.equals(b));
+  }
+}
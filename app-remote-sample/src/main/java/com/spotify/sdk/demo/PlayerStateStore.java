@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.spotify.sdk.demo;
+
+import android.util.Log;
+
+import com.spotify.android.appremote.api.PlayerApi;
+import com.spotify.android.appremote.api.UserApi;
+import com.spotify.protocol.client.CallResult;
+import com.spotify.protocol.client.ResultUtils;
+import com.spotify.protocol.client.Subscription;
+import com.spotify.protocol.types.Capabilities;
+import com.spotify.protocol.types.PlayerContext;
+import com.spotify.protocol.types.PlayerState;
+import com.spotify.protocol.types.UserStatus;
+import com.spotify.protocol.types.VolumeState;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the latest state pushed by the Spotify app so it can be read without a round-trip.
+ *
+ * <p>Once attached, the store holds subscriptions to {@link PlayerState}, {@link PlayerContext},
+ * {@link Capabilities}, {@link VolumeState} and {@link UserStatus}. The getters are plain volatile
+ * reads and may be called from any thread; they return {@code null} until the first event has
+ * arrived.
+ */
+public class PlayerStateStore {
+
+  private static final String TAG = PlayerStateStore.class.getSimpleName();
+
+  private final CallCoalescer mCallCoalescer;
+  private final SubscriptionMultiplexer mMultiplexer;
+  private final List<Subscription<?>> mSubscriptions = new ArrayList<>();
+
+  private volatile PlayerState mPlayerState;
+  private volatile PlayerContext mPlayerContext;
+  private volatile Capabilities mCapabilities;
+  private volatile VolumeState mVolumeState;
+  private volatile UserStatus mUserStatus;
+
+  public PlayerStateStore(CallCoalescer callCoalescer, SubscriptionMultiplexer multiplexer) {
+    mCallCoalescer = callCoalescer;
+    mMultiplexer = multiplexer;
+  }
+
+  /**
+   * Subscribes to every topic through the multiplexer, replacing any previous attachment. The
+   * multiplexer owns the connection, so this shares its upstream subscriptions with other
+   * listeners.
+   */
+  public synchronized void attach() {
+    detach();
+    mSubscriptions.add(
+        mMultiplexer
+            .subscribe(SubscriptionMultiplexer.PLAYER_STATE)
+            .setEventCallback(playerState -> mPlayerState = playerState));
+    mSubscriptions.add(
+        mMultiplexer
+            .subscribe(SubscriptionMultiplexer.PLAYER_CONTEXT)
+            .setEventCallback(playerContext -> mPlayerContext = playerContext));
+    mSubscriptions.add(
+        mMultiplexer
+            .subscribe(SubscriptionMultiplexer.CAPABILITIES)
+            .setEventCallback(capabilities -> mCapabilities = capabilities));
+    mSubscriptions.add(
+        mMultiplexer
+            .subscribe(SubscriptionMultiplexer.USER_STATUS)
+            .setEventCallback(userStatus -> mUserStatus = userStatus));
+    mSubscriptions.add(
+        mMultiplexer
+            .subscribe(SubscriptionMultiplexer.VOLUME_STATE)
+            .setEventCallback(volumeState -> mVolumeState = volumeState));
+    for (Subscription<?> subscription : mSubscriptions) {
+      subscription.setErrorCallback(throwable -> Log.w(TAG, "Subscription failed", throwable));
+    }
+  }
+
+  /** Cancels the subscriptions and forgets all state. */
+  public synchronized void detach() {
+    for (Subscription<?> subscription : mSubscriptions) {
+      if (!subscription.isCanceled()) {
+        subscription.cancel();
+      }
+    }
+    mSubscriptions.clear();
+    mPlayerState = null;
+    mPlayerContext = null;
+    mCapabilities = null;
+    mVolumeState = null;
+    mUserStatus = null;
+  }
+
+  public PlayerState getPlayerState() {
+    return mPlayerState;
+  }
+
+  public PlayerContext getPlayerContext() {
+    return mPlayerContext;
+  }
+
+  public Capabilities getCapabilities() {
+    return mCapabilities;
+  }
+
+  public VolumeState getVolumeState() {
+    return mVolumeState;
+  }
+
+  public UserStatus getUserStatus() {
+    return mUserStatus;
+  }
+
+  /**
+   * Returns the latest {@link PlayerState}, completed immediately when one is known. Before the
+   * first event it falls back to a single {@link PlayerApi#getPlayerState()} call that is shared
+   * by all callers.
+   */
+  public CallResult<PlayerState> fetchPlayerState(PlayerApi playerApi) {
+    PlayerState playerState = mPlayerState;
+    if (playerState != null) {
+      return CallResults.completed(playerState);
+    }
+    CallResult<PlayerState> result = CallResults.pending();
+    mCallCoalescer
+        .getPlayerState(playerApi)
+        .setResultCallback(
+            fetched -> {
+              if (mPlayerState == null) {
+                mPlayerState = fetched;
+              }
+              result.deliverResult(ResultUtils.createSuccessfulResult(fetched));
+            })
+        .setErrorCallback(result::deliverError);
+    return result;
+  }
+
+  /** Like {@link #fetchPlayerState}, for {@link Capabilities}. */
+  public CallResult<Capabilities> fetchCapabilities(UserApi userApi) {
+    Capabilities capabilities = mCapabilities;
+    if (capabilities != null) {
+      return CallResults.completed(capabilities);
+    }
+    CallResult<Capabilities> result = CallResults.pending();
+    mCallCoalescer
+        .call("UserApi.getCapabilities", userApi::getCapabilities)
+        .setResultCallback(
+            fetched -> {
+              if (mCapabilities == null) {
+                mCapabilities = fetched;
+              }
+              result.deliverResult(ResultUtils.createSuccessfulResult(fetched));
+            })
+        .setErrorCallback(result::deliverError);
+    return result;
+  }
+}
@@ -21,6 +21,7 @@
 
 package com.spotify.sdk.demo;
 
+import android.graphics.Bitmap;
 import android.graphics.Color;
 import android.graphics.PorterDuff;
 import android.graphics.drawable.Drawable;
@@ -43,16 +44,21 @@ import android.widget.Toast;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.spotify.android.appremote.api.ConnectionParams;
-import com.spotify.android.appremote.api.Connector;
 import com.spotify.android.appremote.api.ContentApi;
+import com.spotify.android.appremote.api.PlayerApi;
 import com.spotify.android.appremote.api.SpotifyAppRemote;
+import com.spotify.android.appremote.api.UserApi;
+import com.spotify.android.appremote.api.error.SpotifyDisconnectedException;
 import com.spotify.android.appremote.demo.R;
+import com.spotify.protocol.client.CallResult;
 import com.spotify.protocol.client.ErrorCallback;
 import com.spotify.protocol.client.Subscription;
 import com.spotify.protocol.types.Capabilities;
+import com.spotify.protocol.types.Empty;
 import com.spotify.protocol.types.Image;
+import com.spotify.protocol.types.LibraryState;
 import com.spotify.protocol.types.ListItem;
+import com.spotify.protocol.types.ListItems;
 import com.spotify.protocol.types.PlaybackSpeed;
 import com.spotify.protocol.types.PlayerContext;
 import com.spotify.protocol.types.PlayerState;
@@ -60,16 +66,15 @@ import com.spotify.protocol.types.Repeat;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
-import java.util.concurrent.CountDownLatch;
+import java.util.Map;
 
 public class RemotePlayerActivity extends FragmentActivity {
 
   private static final String TAG = RemotePlayerActivity.class.getSimpleName();
 
-  private static final String CLIENT_ID = "089d841ccc194c10a77afad9e1c11d54";
-  private static final String REDIRECT_URI = "comspotifytestsdk://callback";
 
   private static final String TRACK_URI = "spotify:track:4IWZsfEkaK49itBwCTFDXQ";
   private static final String ALBUM_URI = "spotify:album:4nZ5wPL5XxSY2OuDgbnYdc";
@@ -77,7 +82,25 @@ public class RemotePlayerActivity extends FragmentActivity {
   private static final String PLAYLIST_URI = "spotify:playlist:37i9dQZEVXbMDoHDwVN2tF";
   private static final String PODCAST_URI = "spotify:show:2tgPYIeGErjk6irHRhk9kj";
 
+  /** Rows at the top of a result dialog, whose library state is looked up first. */
+  private static final int VISIBLE_ROWS = 8;
+
   private static SpotifyAppRemote mSpotifyAppRemote;
+  private static CoverArtCache mCoverArtCache;
+  private static ArtworkPrefetcher mArtworkPrefetcher;
+  private static final CallCoalescer mCallCoalescer = new CallCoalescer();
+  private static final SubscriptionMultiplexer mSubscriptionMultiplexer =
+      new SubscriptionMultiplexer();
+  private static final PlayerStateStore mPlayerStateStore =
+      new PlayerStateStore(mCallCoalescer, mSubscriptionMultiplexer);
+  private static final ListItemsPageCache mListItemsPageCache =
+      new ListItemsPageCache(mCallCoalescer);
+  private static final LibraryStateCache mLibraryStateCache =
+      new LibraryStateCache(mCallCoalescer, mSubscriptionMultiplexer);
+  private static final AppRemoteMetrics mMetrics = AppRemoteMetrics.getInstance();
+  private static final CallScheduler mScheduler = CallScheduler.getInstance();
+  private static final SeekCoalescer mSeekCoalescer = new SeekCoalescer();
+  private static final BitmapPool mBitmapPool = new BitmapPool(4 * 1024 * 1024);
 
   Gson gson = new GsonBuilder().setPrettyPrinting().create();
 
@@ -87,6 +110,8 @@ public class RemotePlayerActivity extends FragmentActivity {
   Button mSubscribeToPlayerStateButton;
   Button mPlayerStateButton;
   ImageView mCoverArtImageView;
+  /** The displayed cover art if it came from {@link #mBitmapPool}, returned once replaced. */
+  Bitmap mPooledCoverArt;
   AppCompatTextView mImageLabel;
   AppCompatTextView mImageScaleTypeLabel;
   AppCompatImageButton mToggleShuffleButton;
@@ -102,6 +127,24 @@ public class RemotePlayerActivity extends FragmentActivity {
   Subscription<PlayerContext> mPlayerContextSubscription;
   Subscription<Capabilities> mCapabilitiesSubscription;
 
+  private final ConnectionSupervisor.Listener mConnectionListener =
+      new ConnectionSupervisor.Listener() {
+        @Override
+        public void onConnected(SpotifyAppRemote spotifyAppRemote) {
+          mSpotifyAppRemote = spotifyAppRemote;
+          RemotePlayerActivity.this.onConnected();
+        }
+
+        @Override
+        public void onDisconnected(Throwable error, boolean reconnecting) {
+          logError(error);
+          RemotePlayerActivity.this.onDisconnected();
+          if (reconnecting) {
+            onConnecting();
+          }
+        }
+      };
+
   private final ErrorCallback mErrorCallback = this::logError;
 
   private final Subscription.EventCallback<PlayerContext> mPlayerContextEventCallback =
@@ -111,108 +154,147 @@ public class RemotePlayerActivity extends FragmentActivity {
           mPlayerContextButton.setText(
               String.format(Locale.US, "%s\n%s", playerContext.title, playerContext.subtitle));
           mPlayerContextButton.setTag(playerContext);
+          mArtworkPrefetcher.onPlayerContextChanged(
+              mSpotifyAppRemote.getContentApi(), playerContext);
         }
       };
 
-  private final Subscription.EventCallback<PlayerState> mPlayerStateEventCallback =
-      new Subscription.EventCallback<PlayerState>() {
-        @Override
-        public void onEvent(PlayerState playerState) {
-
-          Drawable drawable =
-              ResourcesCompat.getDrawable(
-                  getResources(), R.drawable.mediaservice_shuffle, getTheme());
-          if (!playerState.playbackOptions.isShuffling) {
-            mToggleShuffleButton.setImageDrawable(drawable);
-            DrawableCompat.setTint(mToggleShuffleButton.getDrawable(), Color.WHITE);
-          } else {
-            mToggleShuffleButton.setImageDrawable(drawable);
-            DrawableCompat.setTint(
-                mToggleShuffleButton.getDrawable(),
-                getResources().getColor(R.color.cat_medium_green));
-          }
+  private final PlayerStateDiffer mPlayerStateEventCallback =
+      new PlayerStateDiffer(
+          new PlayerStateDiffer.Listener() {
+            @Override
+            public void onPlayerStateChanged(
+                PlayerState playerState, PlayerStateDiffer.Changes changes) {
+
+              if (changes.playbackOptionsChanged()) {
+                Drawable drawable =
+                    ResourcesCompat.getDrawable(
+                        getResources(), R.drawable.mediaservice_shuffle, getTheme());
+                if (!playerState.playbackOptions.isShuffling) {
+                  mToggleShuffleButton.setImageDrawable(drawable);
+                  DrawableCompat.setTint(mToggleShuffleButton.getDrawable(), Color.WHITE);
+                } else {
+                  mToggleShuffleButton.setImageDrawable(drawable);
+                  DrawableCompat.setTint(
+                      mToggleShuffleButton.getDrawable(),
+                      getResources().getColor(R.color.cat_medium_green));
+                }
 
-          if (playerState.playbackOptions.repeatMode == Repeat.ALL) {
-            mToggleRepeatButton.setImageResource(R.drawable.mediaservice_repeat_all);
-            DrawableCompat.setTint(
-                mToggleRepeatButton.getDrawable(),
-                getResources().getColor(R.color.cat_medium_green));
-          } else if (playerState.playbackOptions.repeatMode == Repeat.ONE) {
-            mToggleRepeatButton.setImageResource(R.drawable.mediaservice_repeat_one);
-            DrawableCompat.setTint(
-                mToggleRepeatButton.getDrawable(),
-                getResources().getColor(R.color.cat_medium_green));
-          } else {
-            mToggleRepeatButton.setImageResource(R.drawable.mediaservice_repeat_off);
-            DrawableCompat.setTint(mToggleRepeatButton.getDrawable(), Color.WHITE);
-          }
+                if (playerState.playbackOptions.repeatMode == Repeat.ALL) {
+                  mToggleRepeatButton.setImageResource(R.drawable.mediaservice_repeat_all);
+                  DrawableCompat.setTint(
+                      mToggleRepeatButton.getDrawable(),
+                      getResources().getColor(R.color.cat_medium_green));
+                } else if (playerState.playbackOptions.repeatMode == Repeat.ONE) {
+                  mToggleRepeatButton.setImageResource(R.drawable.mediaservice_repeat_one);
+                  DrawableCompat.setTint(
+                      mToggleRepeatButton.getDrawable(),
+                      getResources().getColor(R.color.cat_medium_green));
+                } else {
+                  mToggleRepeatButton.setImageResource(R.drawable.mediaservice_repeat_off);
+                  DrawableCompat.setTint(mToggleRepeatButton.getDrawable(), Color.WHITE);
+                }
+              }
 
-          if (playerState.track != null) {
-            mPlayerStateButton.setText(
-                    String.format(
-                            Locale.US, "%s\n%s", playerState.track.name, playerState.track.artist.name));
-            mPlayerStateButton.setTag(playerState);
-          }
-          // Update progressbar
-          if (playerState.playbackSpeed > 0) {
-            mTrackProgressBar.unpause();
-          } else {
-            mTrackProgressBar.pause();
-          }
+              if (playerState.track != null) {
+                mPlayerStateButton.setTag(playerState);
+              }
 
-          // Invalidate play / pause
-          if (playerState.isPaused) {
-            mPlayPauseButton.setImageResource(R.drawable.btn_play);
-          } else {
-            mPlayPauseButton.setImageResource(R.drawable.btn_pause);
-          }
+              // Update progressbar
+              if (changes.speedChanged() || changes.pausedChanged()) {
+                if (playerState.playbackSpeed > 0) {
+                  mTrackProgressBar.unpause();
+                } else {
+                  mTrackProgressBar.pause();
+                }
+              }
 
-          // Invalidate playback speed
-          mPlaybackSpeedButton.setVisibility(View.VISIBLE);
-          if (playerState.playbackSpeed == 0.5f) {
-            mPlaybackSpeedButton.setImageResource(R.drawable.ic_playback_speed_50);
-          } else if (playerState.playbackSpeed == 0.8f) {
-            mPlaybackSpeedButton.setImageResource(R.drawable.ic_playback_speed_80);
-          } else if (playerState.playbackSpeed == 1f) {
-            mPlaybackSpeedButton.setImageResource(R.drawable.ic_playback_speed_100);
-          } else if (playerState.playbackSpeed == 1.2f) {
-            mPlaybackSpeedButton.setImageResource(R.drawable.ic_playback_speed_120);
-          } else if (playerState.playbackSpeed == 1.5f) {
-            mPlaybackSpeedButton.setImageResource(R.drawable.ic_playback_speed_150);
-          } else if (playerState.playbackSpeed == 2f) {
-            mPlaybackSpeedButton.setImageResource(R.drawable.ic_playback_speed_200);
-          } else if (playerState.playbackSpeed == 3f) {
-            mPlaybackSpeedButton.setImageResource(R.drawable.ic_playback_speed_300);
-          }
-          if (playerState.track != null && playerState.track.isPodcast && playerState.track.isEpisode) {
-            mPlaybackSpeedButton.setEnabled(true);
-            mPlaybackSpeedButton.clearColorFilter();
-          } else {
-            mPlaybackSpeedButton.setEnabled(false);
-            mPlaybackSpeedButton.setColorFilter(Color.GRAY, PorterDuff.Mode.SRC_ATOP);
-          }
+              // Invalidate play / pause
+              if (changes.pausedChanged()) {
+                if (playerState.isPaused) {
+                  mPlayPauseButton.setImageResource(R.drawable.btn_play);
+                } else {
+                  mPlayPauseButton.setImageResource(R.drawable.btn_pause);
+                }
+              }
 
-          if (playerState.track != null) {
-            // Get image from track
-            mSpotifyAppRemote
-                    .getImagesApi()
-                    .getImage(playerState.track.imageUri, Image.Dimension.LARGE)
-                    .setResultCallback(
-                            bitmap -> {
-                              mCoverArtImageView.setImageBitmap(bitmap);
-                              mImageLabel.setText(
-                                      String.format(
-                                              Locale.ENGLISH, "%d x %d", bitmap.getWidth(), bitmap.getHeight()));
-                            });
-          // Invalidate seekbar length and position
-          mSeekBar.setMax((int) playerState.track.duration);
-          mTrackProgressBar.setDuration(playerState.track.duration);
-          mTrackProgressBar.update(playerState.playbackPosition);
-        }
+              // Invalidate playback speed
+              if (changes.speedChanged()) {
+                mPlaybackSpeedButton.setVisibility(View.VISIBLE);
+                if (playerState.playbackSpeed == 0.5f) {
+                  mPlaybackSpeedButton.setImageResource(R.drawable.ic_playback_speed_50);
+                } else if (playerState.playbackSpeed == 0.8f) {
+                  mPlaybackSpeedButton.setImageResource(R.drawable.ic_playback_speed_80);
+                } else if (playerState.playbackSpeed == 1f) {
+                  mPlaybackSpeedButton.setImageResource(R.drawable.ic_playback_speed_100);
+                } else if (playerState.playbackSpeed == 1.2f) {
+                  mPlaybackSpeedButton.setImageResource(R.drawable.ic_playback_speed_120);
+                } else if (playerState.playbackSpeed == 1.5f) {
+                  mPlaybackSpeedButton.setImageResource(R.drawable.ic_playback_speed_150);
+                } else if (playerState.playbackSpeed == 2f) {
+                  mPlaybackSpeedButton.setImageResource(R.drawable.ic_playback_speed_200);
+                } else if (playerState.playbackSpeed == 3f) {
+                  mPlaybackSpeedButton.setImageResource(R.drawable.ic_playback_speed_300);
+                }
+              }
 
-          mSeekBar.setEnabled(true);
-        }
-      };
+              if (changes.trackChanged()) {
+                if (playerState.track != null
+                    && playerState.track.isPodcast
+                    && playerState.track.isEpisode) {
+                  mPlaybackSpeedButton.setEnabled(true);
+                  mPlaybackSpeedButton.clearColorFilter();
+                } else {
+                  mPlaybackSpeedButton.setEnabled(false);
+                  mPlaybackSpeedButton.setColorFilter(Color.GRAY, PorterDuff.Mode.SRC_ATOP);
+                }
+              }
+
+              if (playerState.track != null) {
+                if (changes.trackChanged()) {
+                  mPlayerStateButton.setText(
+                      String.format(
+                          Locale.US,
+                          "%s\n%s",
+                          playerState.track.name,
+                          playerState.track.artist.name));
+
+                  // Get image from track, decoded at the size of the view
+                  int viewSize =
+                      Math.max(mCoverArtImageView.getWidth(), mCoverArtImageView.getHeight());
+                  int targetSize = viewSize > 0 ? viewSize : Image.Dimension.LARGE.getValue();
+                  mArtworkPrefetcher.onTrackChanged(
+                      mSpotifyAppRemote.getImagesApi(), playerState.track, targetSize);
+                  mCoverArtCache
+                      .getImage(
+                          mSpotifyAppRemote.getImagesApi(),
+                          playerState.track.imageUri,
+                          targetSize,
+                          Bitmap.Config.RGB_565,
+                          mBitmapPool)
+                      .setResultCallback(
+                          bitmap -> {
+                            showCoverArt(bitmap, true);
+                            mArtworkPrefetcher.onArtworkShown(playerState.track.imageUri);
+                          });
+
+                  // Invalidate seekbar length
+                  mSeekBar.setMax((int) playerState.track.duration);
+                  mTrackProgressBar.setDuration(playerState.track.duration);
+                }
+                // Invalidate seekbar position
+                if (changes.positionJumped() || changes.pausedChanged()) {
+                  mTrackProgressBar.update(playerState.playbackPosition);
+                }
+              }
+
+              mSeekBar.setEnabled(true);
+            }
+          });
+
+  /** Shows the expected effect of player commands before the next event confirms it. */
+  private final OptimisticPlayerState mOptimisticPlayerState =
+      new OptimisticPlayerState(mPlayerStateEventCallback);
 
   @Override
   protected void onCreate(final Bundle savedInstanceState) {
@@ -220,6 +302,12 @@ public class RemotePlayerActivity extends FragmentActivity {
     super.onCreate(savedInstanceState);
     setContentView(R.layout.app_remote_layout);
 
+    if (mCoverArtCache == null) {
+      mCoverArtCache = new CoverArtCache(getApplicationContext(), mCallCoalescer);
+      // Two tracks each way, at most six calls to the Spotify app per ten seconds.
+      mArtworkPrefetcher = new ArtworkPrefetcher(mCoverArtCache, mListItemsPageCache, 2, 6, 10000);
+    }
+
     mConnectButton = findViewById(R.id.connect_button);
     mConnectAuthorizeButton = findViewById(R.id.connect_authorize_button);
     mPlayerContextButton = findViewById(R.id.current_context_label);
@@ -239,7 +327,8 @@ public class RemotePlayerActivity extends FragmentActivity {
     mSeekBar.getProgressDrawable().setColorFilter(Color.WHITE, PorterDuff.Mode.SRC_ATOP);
     mSeekBar.getIndeterminateDrawable().setColorFilter(Color.WHITE, PorterDuff.Mode.SRC_ATOP);
 
-    mTrackProgressBar = new TrackProgressBar(mSeekBar);
+    mTrackProgressBar =
+        new TrackProgressBar(mSeekBar, mPlayerStateEventCallback.getPositionClock());
 
     mViews =
         Arrays.asList(
@@ -274,10 +363,26 @@ public class RemotePlayerActivity extends FragmentActivity {
     onConnectAndAuthorizedClicked(null);
   }
 
+  @Override
+  protected void onStart() {
+    super.onStart();
+    AppRemoteHolder.get().acquire(mConnectionListener);
+  }
+
   @Override
   protected void onStop() {
     super.onStop();
-    SpotifyAppRemote.disconnect(mSpotifyAppRemote);
+    Log.d(TAG, mCoverArtCache.toString());
+    Log.d(TAG, mBitmapPool.toString());
+    Log.d(TAG, mArtworkPrefetcher.toString());
+    Log.d(TAG, mOptimisticPlayerState.toString());
+    Log.d(TAG, mSeekCoalescer.toString());
+    Log.d(TAG, mScheduler.toString());
+    Log.d(TAG, mLibraryStateCache.toString());
+    mMetrics.export(new AppRemoteMetrics.LogcatExporter(TAG));
+    cancelSubscriptions();
+    // The connection stays up for a while, so coming back to the app does not have to reconnect.
+    AppRemoteHolder.get().release(mConnectionListener);
     onDisconnected();
   }
 
@@ -290,6 +395,9 @@ public class RemotePlayerActivity extends FragmentActivity {
     mConnectAuthorizeButton.setEnabled(false);
     mConnectAuthorizeButton.setText(R.string.connected);
 
+    mSubscriptionMultiplexer.attach(mSpotifyAppRemote);
+    mPlayerStateStore.attach();
+    mLibraryStateCache.attach();
     onSubscribedToPlayerStateButtonClicked(null);
     onSubscribedToPlayerContextButtonClicked(null);
   }
@@ -301,7 +409,20 @@ public class RemotePlayerActivity extends FragmentActivity {
     mConnectAuthorizeButton.setText(R.string.connecting);
   }
 
+  private void showCoverArt(Bitmap bitmap, boolean pooled) {
+    mCoverArtImageView.setImageBitmap(bitmap);
+    mImageLabel.setText(
+        String.format(Locale.ENGLISH, "%d x %d", bitmap.getWidth(), bitmap.getHeight()));
+    if (mPooledCoverArt != bitmap) {
+      mBitmapPool.put(mPooledCoverArt);
+    }
+    mPooledCoverArt = pooled ? bitmap : null;
+  }
+
   private void onDisconnected() {
+    mLibraryStateCache.detach();
+    mPlayerStateStore.detach();
+    mSubscriptionMultiplexer.detach();
     for (View view : mViews) {
       view.setEnabled(false);
     }
@@ -310,6 +431,8 @@ public class RemotePlayerActivity extends FragmentActivity {
     mConnectAuthorizeButton.setEnabled(true);
     mConnectAuthorizeButton.setText(R.string.authorize);
     mCoverArtImageView.setImageResource(R.drawable.widget_placeholder);
+    mBitmapPool.put(mPooledCoverArt);
+    mPooledCoverArt = null;
     mPlayerContextButton.setText(R.string.title_player_context);
     mPlayerStateButton.setText(R.string.title_current_track);
     mToggleRepeatButton.clearColorFilter();
@@ -333,40 +456,39 @@ public class RemotePlayerActivity extends FragmentActivity {
   }
 
   private void connect(boolean showAuthView) {
+    AppRemoteHolder.get().connect(DemoApplication.connectionParams(showAuthView));
+  }
 
-    SpotifyAppRemote.disconnect(mSpotifyAppRemote);
-
-    SpotifyAppRemote.connect(
-        getApplicationContext(),
-        new ConnectionParams.Builder(CLIENT_ID)
-            .setRedirectUri(REDIRECT_URI)
-            .showAuthView(showAuthView)
-            .build(),
-        new Connector.ConnectionListener() {
-          @Override
-          public void onConnected(SpotifyAppRemote spotifyAppRemote) {
-            mSpotifyAppRemote = spotifyAppRemote;
-            RemotePlayerActivity.this.onConnected();
-          }
-
-          @Override
-          public void onFailure(Throwable error) {
-            logError(error);
-            RemotePlayerActivity.this.onDisconnected();
-          }
-        });
+  private void cancelSubscriptions() {
+    for (Subscription<?> subscription :
+        Arrays.asList(
+            mPlayerStateSubscription, mPlayerContextSubscription, mCapabilitiesSubscription)) {
+      if (subscription != null && !subscription.isCanceled()) {
+        subscription.cancel();
+      }
+    }
   }
 
   public void onDisconnectClicked(View v) {
-    SpotifyAppRemote.disconnect(mSpotifyAppRemote);
+    ConnectionSupervisor supervisor = AppRemoteHolder.get().getSupervisor();
+    if (supervisor != null) {
+      Log.d(
+          TAG,
+          String.format(
+              Locale.US,
+              "Recovered %d times, %dms on average",
+              supervisor.getRecoveryCount(),
+              supervisor.getAverageRecoveryTimeMs()));
+    }
+    cancelSubscriptions();
+    AppRemoteHolder.get().disconnect();
     onDisconnected();
   }
 
   public void onImageClicked(View view) {
     if (mSpotifyAppRemote != null) {
-      mSpotifyAppRemote
-          .getPlayerApi()
-          .getPlayerState()
+      mPlayerStateStore
+          .fetchPlayerState(mSpotifyAppRemote.getPlayerApi())
           .setResultCallback(
               playerState -> {
                 PopupMenu menu = new PopupMenu(this, view);
@@ -381,20 +503,12 @@ public class RemotePlayerActivity extends FragmentActivity {
 
                 menu.setOnMenuItemClickListener(
                     item -> {
-                      mSpotifyAppRemote
-                          .getImagesApi()
+                      mCoverArtCache
                           .getImage(
-                              playerState.track.imageUri, Image.Dimension.values()[item.getOrder()])
-                          .setResultCallback(
-                              bitmap -> {
-                                mCoverArtImageView.setImageBitmap(bitmap);
-                                mImageLabel.setText(
-                                    String.format(
-                                        Locale.ENGLISH,
-                                        "%d x %d",
-                                        bitmap.getWidth(),
-                                        bitmap.getHeight()));
-                              });
+                              mSpotifyAppRemote.getImagesApi(),
+                              playerState.track.imageUri,
+                              Image.Dimension.values()[item.getOrder()])
+                          .setResultCallback(bitmap -> showCoverArt(bitmap, false));
                       return false;
                     });
               })
@@ -404,9 +518,8 @@ public class RemotePlayerActivity extends FragmentActivity {
 
   public void onImageScaleTypeClicked(View view) {
     if (mSpotifyAppRemote != null) {
-      mSpotifyAppRemote
-          .getPlayerApi()
-          .getPlayerState()
+      mPlayerStateStore
+          .fetchPlayerState(mSpotifyAppRemote.getPlayerApi())
           .setResultCallback(
               playerState -> {
                 PopupMenu menu = new PopupMenu(this, view);
@@ -455,100 +568,139 @@ public class RemotePlayerActivity extends FragmentActivity {
   }
 
   private void playUri(String uri) {
-    mSpotifyAppRemote
-        .getPlayerApi()
-        .play(uri)
+    interactive("PlayerApi.play", () -> mSpotifyAppRemote.getPlayerApi().play(uri))
         .setResultCallback(empty -> logMessage(getString(R.string.command_feedback, "play")))
         .setErrorCallback(mErrorCallback);
   }
 
   public void showCurrentPlayerContext(View view) {
-    if (view.getTag() != null) {
-      showDialog("PlayerContext", gson.toJson(view.getTag()));
-    }
+    showJsonDialog("PlayerContext", view.getTag());
   }
 
   public void showCurrentPlayerState(View view) {
-    if (view.getTag() != null) {
-      showDialog("PlayerState", gson.toJson(view.getTag()));
+    showJsonDialog("PlayerState", view.getTag());
+  }
+
+  private void showJsonDialog(String title, Object value) {
+    if (value != null) {
+      CallbackExecutors.submit(CallbackExecutors.background(), () -> gson.toJson(value))
+          .setResultCallback(json -> showDialog(title, json))
+          .setErrorCallback(mErrorCallback);
     }
   }
 
   public void onToggleShuffleButtonClicked(View view) {
-    mSpotifyAppRemote
-        .getPlayerApi()
-        .toggleShuffle()
+    PlayerApi playerApi = mSpotifyAppRemote.getPlayerApi();
+    PlayerState playerState = mOptimisticPlayerState.getPlayerState();
+    CallResult<Empty> command;
+    if (playerState != null && playerState.playbackOptions != null) {
+      // Set the mode instead of toggling it, so the expected state can be shown right away.
+      boolean shuffle = !playerState.playbackOptions.isShuffling;
+      command =
+          mOptimisticPlayerState.apply(
+              OptimisticPlayerState.setShuffle(shuffle),
+              interactive("PlayerApi.setShuffle", () -> playerApi.setShuffle(shuffle)));
+    } else {
+      command = interactive("PlayerApi.toggleShuffle", playerApi::toggleShuffle);
+    }
+    command
         .setResultCallback(
             empty -> logMessage(getString(R.string.command_feedback, "toggle shuffle")))
         .setErrorCallback(mErrorCallback);
   }
 
   public void onToggleRepeatButtonClicked(View view) {
-    mSpotifyAppRemote
-        .getPlayerApi()
-        .toggleRepeat()
+    PlayerApi playerApi = mSpotifyAppRemote.getPlayerApi();
+    PlayerState playerState = mOptimisticPlayerState.getPlayerState();
+    CallResult<Empty> command;
+    if (playerState != null) {
+      int repeatMode = OptimisticPlayerState.nextRepeatMode(playerState);
+      command =
+          mOptimisticPlayerState.apply(
+              OptimisticPlayerState.setRepeat(repeatMode),
+              interactive("PlayerApi.setRepeat", () -> playerApi.setRepeat(repeatMode)));
+    } else {
+      command = interactive("PlayerApi.toggleRepeat", playerApi::toggleRepeat);
+    }
+    command
         .setResultCallback(
             empty -> logMessage(getString(R.string.command_feedback, "toggle repeat")))
         .setErrorCallback(mErrorCallback);
   }
 
   public void onSkipPreviousButtonClicked(View view) {
-    mSpotifyAppRemote
-        .getPlayerApi()
-        .skipPrevious()
+    interactive("PlayerApi.skipPrevious", mSpotifyAppRemote.getPlayerApi()::skipPrevious)
         .setResultCallback(
             empty -> logMessage(getString(R.string.command_feedback, "skip previous")))
         .setErrorCallback(mErrorCallback);
   }
 
   public void onPlayPauseButtonClicked(View view) {
-    mSpotifyAppRemote
-        .getPlayerApi()
-        .getPlayerState()
+    PlayerState displayed = mOptimisticPlayerState.getPlayerState();
+    if (displayed != null) {
+      setPaused(!displayed.isPaused);
+      return;
+    }
+    mPlayerStateStore
+        .fetchPlayerState(mSpotifyAppRemote.getPlayerApi())
+        .setResultCallback(playerState -> setPaused(!playerState.isPaused));
+  }
+
+  /** Issues a call the user is waiting for, ahead of any background work. */
+  private static <T> CallResult<T> interactive(String method, RemoteCall<T> call) {
+    return mScheduler.schedule(CallScheduler.Priority.INTERACTIVE, method, call);
+  }
+
+  /**
+   * Issues an idempotent read through the {@link ConnectionSupervisor}, so a read made while the
+   * connection is down is sent once it is back instead of failing.
+   */
+  private static <T> CallResult<T> supervised(String method, ConnectionSupervisor.Call<T> call) {
+    ConnectionSupervisor supervisor = AppRemoteHolder.get().getSupervisor();
+    if (supervisor == null) {
+      return CallResults.failed(new SpotifyDisconnectedException());
+    }
+    return supervisor.call(appRemote -> mMetrics.track(method, call.call(appRemote)));
+  }
+
+  private void setPaused(boolean paused) {
+    PlayerApi playerApi = mSpotifyAppRemote.getPlayerApi();
+    mOptimisticPlayerState
+        .apply(
+            OptimisticPlayerState.setPaused(paused),
+            paused
+                ? interactive("PlayerApi.pause", playerApi::pause)
+                : interactive("PlayerApi.resume", playerApi::resume))
         .setResultCallback(
-            playerState -> {
-              if (playerState.isPaused) {
-                mSpotifyAppRemote
-                    .getPlayerApi()
-                    .resume()
-                    .setResultCallback(
-                        empty -> logMessage(getString(R.string.command_feedback, "play")))
-                    .setErrorCallback(mErrorCallback);
-              } else {
-                mSpotifyAppRemote
-                    .getPlayerApi()
-                    .pause()
-                    .setResultCallback(
-                        empty -> logMessage(getString(R.string.command_feedback, "pause")))
-                    .setErrorCallback(mErrorCallback);
-              }
-            });
+            empty -> logMessage(getString(R.string.command_feedback, paused ? "pause" : "play")))
+        .setErrorCallback(mErrorCallback);
   }
 
   public void onSkipNextButtonClicked(View view) {
-    mSpotifyAppRemote
-        .getPlayerApi()
-        .skipNext()
+    interactive("PlayerApi.skipNext", mSpotifyAppRemote.getPlayerApi()::skipNext)
         .setResultCallback(data -> logMessage(getString(R.string.command_feedback, "skip next")))
         .setErrorCallback(mErrorCallback);
   }
 
   public void onSeekBack(View view) {
-    mSpotifyAppRemote
-        .getPlayerApi()
-        .seekToRelativePosition(-15000)
+    seekRelative(-15000)
         .setResultCallback(data -> logMessage(getString(R.string.command_feedback, "seek back")))
         .setErrorCallback(mErrorCallback);
   }
 
   public void onSeekForward(View view) {
-    mSpotifyAppRemote
-        .getPlayerApi()
-        .seekToRelativePosition(15000)
+    seekRelative(15000)
         .setResultCallback(data -> logMessage(getString(R.string.command_feedback, "seek fwd")))
         .setErrorCallback(mErrorCallback);
   }
 
+  private CallResult<Empty> seekRelative(long deltaMs) {
+    long target = mPlayerStateEventCallback.getPositionClock().getPosition() + deltaMs;
+    return mOptimisticPlayerState.apply(
+        OptimisticPlayerState.seekTo(target),
+        mSeekCoalescer.seekToRelativePosition(mSpotifyAppRemote.getPlayerApi(), deltaMs));
+  }
+
   public void onSubscribeToCapabilitiesClicked(View view) {
 
     if (mCapabilitiesSubscription != null && !mCapabilitiesSubscription.isCanceled()) {
@@ -558,9 +710,8 @@ public class RemotePlayerActivity extends FragmentActivity {
 
     mCapabilitiesSubscription =
         (Subscription<Capabilities>)
-            mSpotifyAppRemote
-                .getUserApi()
-                .subscribeToCapabilities()
+            mSubscriptionMultiplexer
+                .subscribe(SubscriptionMultiplexer.CAPABILITIES)
                 .setEventCallback(
                     capabilities ->
                         logMessage(
@@ -569,9 +720,7 @@ public class RemotePlayerActivity extends FragmentActivity {
                                     capabilities.canPlayOnDemand)))
                 .setErrorCallback(mErrorCallback);
 
-    mSpotifyAppRemote
-        .getUserApi()
-        .getCapabilities()
+    supervised("UserApi.getCapabilities", appRemote -> appRemote.getUserApi().getCapabilities())
         .setResultCallback(
             capabilities ->
                 logMessage(
@@ -582,70 +731,107 @@ public class RemotePlayerActivity extends FragmentActivity {
   }
 
   public void onGetCollectionStateClicked(View view) {
-    mSpotifyAppRemote
-        .getUserApi()
-        .getLibraryState(TRACK_URI)
+    mLibraryStateCache
+        .getLibraryState(mSpotifyAppRemote.getUserApi(), TRACK_URI)
         .setResultCallback(
             libraryState ->
-                showDialog(
+                showJsonDialog(
                     getString(R.string.command_response, getString(R.string.get_collection_state)),
-                    gson.toJson(libraryState)))
+                    libraryState))
         .setErrorCallback(this::logError);
   }
 
   public void onRemoveUriClicked(View view) {
-    mSpotifyAppRemote
-        .getUserApi()
-        .removeFromLibrary(TRACK_URI)
+    mLibraryStateCache
+        .removeFromLibrary(mSpotifyAppRemote.getUserApi(), TRACK_URI)
         .setResultCallback(
             empty -> getString(R.string.command_feedback, getString(R.string.remove_uri)))
         .setErrorCallback(this::logError);
   }
 
   public void onSaveUriClicked(View view) {
-    mSpotifyAppRemote
-        .getUserApi()
-        .addToLibrary(TRACK_URI)
+    mLibraryStateCache
+        .addToLibrary(mSpotifyAppRemote.getUserApi(), TRACK_URI)
         .setResultCallback(
             empty -> logMessage(getString(R.string.command_feedback, getString(R.string.save_uri))))
         .setErrorCallback(this::logError);
   }
 
   public void onGetFitnessRecommendedContentItemsClicked(View view) {
-    mSpotifyAppRemote
-        .getContentApi()
-        .getRecommendedContentItems(ContentApi.ContentType.FITNESS)
-        .setResultCallback(
-            listItems -> {
-              final CountDownLatch latch = new CountDownLatch(listItems.items.length);
-              final List<ListItem> combined = new ArrayList<>(50);
-              for (int j = 0; j < listItems.items.length; j++) {
-                if (listItems.items[j].playable) {
-                  combined.add(listItems.items[j]);
-                  handleLatch(latch, combined);
-                } else {
-                  mSpotifyAppRemote
-                      .getContentApi()
-                      .getChildrenOfItem(listItems.items[j], 3, 0)
-                      .setResultCallback(
-                          childListItems -> {
-                            combined.addAll(Arrays.asList(childListItems.items));
-                            handleLatch(latch, combined);
-                          })
-                      .setErrorCallback(mErrorCallback);
+    final List<ListItem> combined = new ArrayList<>(50);
+    final UserApi userApi = mSpotifyAppRemote.getUserApi();
+    new ContentTreeWalker.Builder(mSpotifyAppRemote.getContentApi())
+        .setMaxDepth(1)
+        .setPageSize(3)
+        .setPageCache(mListItemsPageCache)
+        .setCallbackExecutor(CallbackExecutors.background())
+        .build()
+        .walk(
+            ContentApi.ContentType.FITNESS,
+            new ContentTreeWalker.Listener() {
+              @Override
+              public void onPage(ListItem parent, ListItems page, int depth) {
+                for (ListItem item : page.items) {
+                  // Browsable root items are replaced by their children
+                  if (parent != null || item.playable) {
+                    combined.add(item);
+                  }
+                }
+              }
+
+              @Override
+              public void onError(ListItem parent, Throwable error) {
+                CallbackExecutors.mainThread().execute(() -> logError(error));
+              }
+
+              @Override
+              public void onComplete() {
+                List<String> uris = new ArrayList<>(combined.size());
+                Map<String, LibraryState> cached = new LinkedHashMap<>();
+                for (ListItem item : combined) {
+                  if (item.playable) {
+                    uris.add(item.uri);
+                    cached.put(item.uri, mLibraryStateCache.get(item.uri));
+                  }
                 }
+                // Still on the background executor of the walker.
+                String json = gson.toJson(browseResult(combined, cached));
+                CallbackExecutors.mainThread()
+                    .execute(() -> showBrowseResult(userApi, combined, uris, json));
+              }
+            });
+  }
+
+  /**
+   * Shows the browsed items right away with the library states that are cached, and fills in the
+   * rest once they are looked up.
+   */
+  private void showBrowseResult(
+      UserApi userApi, List<ListItem> items, List<String> uris, String cachedJson) {
+    AlertDialog dialog =
+        showDialog(
+            getString(R.string.command_response, getString(R.string.browse_content)), cachedJson);
+    CallbackExecutors.transform(
+            mLibraryStateCache.getLibraryStates(userApi, uris),
+            CallbackExecutors.background(),
+            states -> gson.toJson(browseResult(items, states)))
+        .setResultCallback(
+            json -> {
+              if (dialog.isShowing()) {
+                dialog.setMessage(json);
               }
             })
         .setErrorCallback(mErrorCallback);
+    // Bulk lookups are background work, except for the rows read first.
+    mLibraryStateCache.promote(userApi, uris.subList(0, Math.min(uris.size(), VISIBLE_ROWS)));
   }
 
-  private void handleLatch(CountDownLatch latch, List<ListItem> combined) {
-    latch.countDown();
-    if (latch.getCount() == 0) {
-      showDialog(
-          getString(R.string.command_response, getString(R.string.browse_content)),
-          gson.toJson(combined));
-    }
+  private static Map<String, Object> browseResult(
+      List<ListItem> items, Map<String, LibraryState> libraryStates) {
+    Map<String, Object> result = new LinkedHashMap<>();
+    result.put("items", items);
+    result.put("libraryStates", libraryStates);
+    return result;
   }
 
   public void onConnectSwitchToLocalClicked(View view) {
@@ -671,9 +857,8 @@ public class RemotePlayerActivity extends FragmentActivity {
 
     mPlayerContextSubscription =
         (Subscription<PlayerContext>)
-            mSpotifyAppRemote
-                .getPlayerApi()
-                .subscribeToPlayerContext()
+            mSubscriptionMultiplexer
+                .subscribe(SubscriptionMultiplexer.PLAYER_CONTEXT)
                 .setEventCallback(mPlayerContextEventCallback)
                 .setErrorCallback(
                     throwable -> {
@@ -693,12 +878,14 @@ public class RemotePlayerActivity extends FragmentActivity {
     mPlayerStateButton.setVisibility(View.VISIBLE);
     mSubscribeToPlayerStateButton.setVisibility(View.INVISIBLE);
 
+    mPlayerStateEventCallback.reset();
+    mOptimisticPlayerState.reset();
     mPlayerStateSubscription =
         (Subscription<PlayerState>)
-            mSpotifyAppRemote
-                .getPlayerApi()
-                .subscribeToPlayerState()
-                .setEventCallback(mPlayerStateEventCallback)
+            mSubscriptionMultiplexer
+                .subscribe(SubscriptionMultiplexer.PLAYER_STATE)
+                // A busy UI thread renders only the newest state, never a stale one after it.
+                .setEventCallback(EventBackpressure.latest(mOptimisticPlayerState))
                 .setLifecycleCallback(
                     new Subscription.LifecycleCallback() {
                       @Override
@@ -733,8 +920,10 @@ public class RemotePlayerActivity extends FragmentActivity {
     Log.d(TAG, msg);
   }
 
-  private void showDialog(String title, String message) {
-    new AlertDialog.Builder(this).setTitle(title).setMessage(message).create().show();
+  private AlertDialog showDialog(String title, String message) {
+    AlertDialog dialog = new AlertDialog.Builder(this).setTitle(title).setMessage(message).create();
+    dialog.show();
+    return dialog;
   }
 
   public void onPlaybackSpeedButtonClicked(View view) {
@@ -770,6 +959,7 @@ public class RemotePlayerActivity extends FragmentActivity {
 
     private static final int LOOP_DURATION = 500;
     private final SeekBar mSeekBar;
+    private final PlaybackPositionClock mPositionClock;
     private final Handler mHandler;
 
     private final SeekBar.OnSeekBarChangeListener mSeekBarChangeListener =
@@ -782,9 +972,11 @@ public class RemotePlayerActivity extends FragmentActivity {
 
           @Override
           public void onStopTrackingTouch(SeekBar seekBar) {
-            mSpotifyAppRemote
-                .getPlayerApi()
-                .seekTo(seekBar.getProgress())
+            long positionMs = seekBar.getProgress();
+            mOptimisticPlayerState
+                .apply(
+                    OptimisticPlayerState.seekTo(positionMs),
+                    mSeekCoalescer.seekTo(mSpotifyAppRemote.getPlayerApi(), positionMs))
                 .setErrorCallback(mErrorCallback);
           }
         };
@@ -793,14 +985,14 @@ public class RemotePlayerActivity extends FragmentActivity {
         new Runnable() {
           @Override
           public void run() {
-            int progress = mSeekBar.getProgress();
-            mSeekBar.setProgress(progress + LOOP_DURATION);
+            mSeekBar.setProgress((int) mPositionClock.getPosition());
             mHandler.postDelayed(mSeekRunnable, LOOP_DURATION);
           }
         };
 
-    private TrackProgressBar(SeekBar seekBar) {
+    private TrackProgressBar(SeekBar seekBar, PlaybackPositionClock positionClock) {
       mSeekBar = seekBar;
+      mPositionClock = positionClock;
       mSeekBar.setOnSeekBarChangeListener(mSeekBarChangeListener);
       mHandler = new Handler();
     }
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.spotify.sdk.demo;
+
+import com.spotify.android.appremote.api.PlayerApi;
+import com.spotify.android.appremote.api.error.SpotifyDisconnectedException;
+import com.spotify.protocol.client.CallResult;
+import com.spotify.protocol.client.ResultUtils;
+import com.spotify.protocol.types.Empty;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Merges rapid seeks into as few {@link PlayerApi} calls as possible.
+ *
+ * <p>A seek is sent right away when none is in flight. Seeks requested while one is in flight are
+ * merged into a single next seek: an absolute position replaces what was queued, a relative one
+ * is added to it. So any number of seeks in a burst costs at most two round-trips, and the Spotify
+ * app restarts playback twice instead of once per tap. Every request completes with the outcome
+ * of the call that carried it, or fails after {@link #SEEK_DEADLINE_MS}.
+ *
+ * <p>Not thread safe, use it from the main thread.
+ */
+public class SeekCoalescer {
+
+  /** A seek without a reply after this long fails, so that the next one can go out. */
+  public static final long SEEK_DEADLINE_MS = 5000;
+
+  private static final class Seek {
+    boolean mRelative;
+    long mValueMs;
+    final List<CallResult<Empty>> mWaiters = new ArrayList<>();
+
+    Seek(boolean relative, long valueMs) {
+      mRelative = relative;
+      mValueMs = valueMs;
+    }
+  }
+
+  private PlayerApi mPlayerApi;
+  private Seek mInFlight;
+  private Seek mNext;
+  private long mRequested;
+  private long mIssued;
+
+  /** Like {@link PlayerApi#seekTo(long)}. */
+  public CallResult<Empty> seekTo(PlayerApi playerApi, long positionMs) {
+    return request(playerApi, false, positionMs);
+  }
+
+  /** Like {@link PlayerApi#seekToRelativePosition(long)}. */
+  public CallResult<Empty> seekToRelativePosition(PlayerApi playerApi, long deltaMs) {
+    return request(playerApi, true, deltaMs);
+  }
+
+  /** Number of seeks requested. */
+  public long getRequestedCount() {
+    return mRequested;
+  }
+
+  /** Number of calls that actually went to the Spotify app. */
+  public long getIssuedCount() {
+    return mIssued;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        Locale.US, "SeekCoalescer{requested=%d, issued=%d}", getRequestedCount(), getIssuedCount());
+  }
+
+  private CallResult<Empty> request(PlayerApi playerApi, boolean relative, long valueMs) {
+    mRequested++;
+    if (mPlayerApi != playerApi) {
+      onConnectionChanged();
+      mPlayerApi = playerApi;
+    }
+    if (mNext == null) {
+      mNext = new Seek(relative, valueMs);
+    } else if (relative) {
+      // Relative to wherever the queued seek ends up, absolute or not.
+      mNext.mValueMs += valueMs;
+    } else {
+      mNext.mRelative = false;
+      mNext.mValueMs = valueMs;
+    }
+    CallResult<Empty> result = CallResults.pending();
+    mNext.mWaiters.add(result);
+    if (mInFlight == null) {
+      issueNext();
+    }
+    return result;
+  }
+
+  private void issueNext() {
+    final Seek seek = mNext;
+    mNext = null;
+    if (seek == null) {
+      return;
+    }
+    mInFlight = seek;
+    mIssued++;
+    final PlayerApi playerApi = mPlayerApi;
+    CallScheduler scheduler = CallScheduler.getInstance();
+    CallResult<Empty> scheduled =
+        seek.mRelative
+            ? scheduler.schedule(
+                CallScheduler.Priority.INTERACTIVE,
+                "PlayerApi.seekToRelativePosition",
+                () -> playerApi.seekToRelativePosition(seek.mValueMs))
+            : scheduler.schedule(
+                CallScheduler.Priority.INTERACTIVE,
+                "PlayerApi.seekTo",
+                () -> playerApi.seekTo(seek.mValueMs));
+    CallDeadlines.withDeadline(scheduled, SEEK_DEADLINE_MS)
+        .setResultCallback(empty -> onDone(seek, empty, null))
+        .setErrorCallback(error -> onDone(seek, null, error));
+  }
+
+  private void onDone(Seek seek, Empty empty, Throwable error) {
+    for (CallResult<Empty> waiter : seek.mWaiters) {
+      if (error != null) {
+        waiter.deliverError(error);
+      } else {
+        waiter.deliverResult(ResultUtils.createSuccessfulResult(empty));
+      }
+    }
+    // A seek for a previous connection completes, but no longer issues the next one.
+    if (mInFlight == seek) {
+      mInFlight = null;
+      issueNext();
+    }
+  }
+
+  /**
+   * Seeks for the previous connection do not hold up the new one. The one in flight still
+   * completes its waiters, queued ones fail.
+   */
+  private void onConnectionChanged() {
+    mInFlight = null;
+    Seek next = mNext;
+    mNext = null;
+    if (next != null) {
+      for (CallResult<Empty> waiter : next.mWaiters) {
+        waiter.deliverError(new SpotifyDisconnectedException());
+      }
+    }
+  }
+}
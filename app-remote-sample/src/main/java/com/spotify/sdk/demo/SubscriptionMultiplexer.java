@@ -0,0 +1,395 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.spotify.sdk.demo;
+
+import android.util.Log;
+
+import com.spotify.android.appremote.api.AppRemote;
+import com.spotify.android.appremote.api.error.SpotifyDisconnectedException;
+import com.spotify.protocol.client.CallResult;
+import com.spotify.protocol.client.RemoteClient;
+import com.spotify.protocol.client.ResultUtils;
+import com.spotify.protocol.client.Subscription;
+import com.spotify.protocol.types.Capabilities;
+import com.spotify.protocol.types.Item;
+import com.spotify.protocol.types.PlayerContext;
+import com.spotify.protocol.types.PlayerState;
+import com.spotify.protocol.types.Types;
+import com.spotify.protocol.types.UserStatus;
+import com.spotify.protocol.types.VolumeState;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shares one subscription per topic between any number of listeners.
+ *
+ * <p>{@link #subscribe} returns a local {@link Subscription} that behaves like the one returned by
+ * the API: set an event and error callback on it and {@link Subscription#cancel() cancel} it when
+ * done. The first local subscription to a topic opens the upstream subscription to the Spotify
+ * app, and cancelling the last one closes it, so the IPC event volume does not depend on the
+ * number of listeners. A new listener gets the latest event right away, and the lifecycle callback
+ * follows the upstream subscription.
+ *
+ * <p>Upstream subscriptions are opened on the connection passed to {@link #attach} and are opened
+ * again when attaching to a new connection. Local subscriptions survive {@link #detach}. When an
+ * upstream subscription fails, its listeners get the error but stay subscribed; the topic is not
+ * retried on the same connection, and is opened again on the next {@link #attach} or the next
+ * {@link #subscribe} to it.
+ */
+public class SubscriptionMultiplexer {
+
+  private static final String TAG = SubscriptionMultiplexer.class.getSimpleName();
+
+  /** Opens the upstream subscription of a topic. */
+  public interface Opener<T> {
+    Subscription<T> open(AppRemote appRemote);
+  }
+
+  /** A subscription topic. */
+  public static final class Topic<T> {
+    final String mName;
+    final Opener<T> mOpener;
+
+    public Topic(String name, Opener<T> opener) {
+      mName = name;
+      mOpener = opener;
+    }
+
+    @Override
+    public String toString() {
+      return mName;
+    }
+  }
+
+  public static final Topic<PlayerState> PLAYER_STATE =
+      new Topic<>(
+          "PlayerApi.subscribeToPlayerState",
+          appRemote -> appRemote.getPlayerApi().subscribeToPlayerState());
+  public static final Topic<PlayerContext> PLAYER_CONTEXT =
+      new Topic<>(
+          "PlayerApi.subscribeToPlayerContext",
+          appRemote -> appRemote.getPlayerApi().subscribeToPlayerContext());
+  public static final Topic<Capabilities> CAPABILITIES =
+      new Topic<>(
+          "UserApi.subscribeToCapabilities",
+          appRemote -> appRemote.getUserApi().subscribeToCapabilities());
+  public static final Topic<UserStatus> USER_STATUS =
+      new Topic<>(
+          "UserApi.subscribeToUserStatus",
+          appRemote -> appRemote.getUserApi().subscribeToUserStatus());
+  public static final Topic<VolumeState> VOLUME_STATE =
+      new Topic<>(
+          "ConnectApi.subscribeToVolumeState",
+          appRemote -> appRemote.getConnectApi().subscribeToVolumeState());
+
+  private final Map<Topic<?>, Channel<?>> mChannels = new HashMap<>();
+  private final LocalClient mLocalClient = new LocalClient();
+  private AppRemote mAppRemote;
+
+  /** Opens the upstream subscriptions of all topics that have listeners on {@code appRemote}. */
+  public void attach(AppRemote appRemote) {
+    List<LocalSubscription<?>> stopped = new ArrayList<>();
+    synchronized (this) {
+      closeAll(stopped);
+      mAppRemote = appRemote;
+      for (Channel<?> channel : mChannels.values()) {
+        channel.open(appRemote);
+      }
+    }
+    notifyStopped(stopped);
+  }
+
+  /** Closes all upstream subscriptions. Local subscriptions stay and resume on {@link #attach}. */
+  public void detach() {
+    List<LocalSubscription<?>> stopped = new ArrayList<>();
+    synchronized (this) {
+      closeAll(stopped);
+      mAppRemote = null;
+    }
+    notifyStopped(stopped);
+  }
+
+  /** Returns a new local subscription to {@code topic}. */
+  @SuppressWarnings("unchecked")
+  public <T> Subscription<T> subscribe(Topic<T> topic) {
+    Channel<T> channel;
+    LocalSubscription<T> local;
+    T latest;
+    synchronized (this) {
+      channel = (Channel<T>) mChannels.get(topic);
+      if (channel == null) {
+        channel = new Channel<>(topic);
+        mChannels.put(topic, channel);
+      }
+      local = new LocalSubscription<>(channel, mLocalClient);
+      channel.mListeners.add(local);
+      if (channel.mUpstream == null && mAppRemote != null) {
+        channel.open(mAppRemote);
+      }
+      latest = channel.mLatest;
+    }
+    if (latest != null) {
+      // Replayed to the event callback once it is set.
+      local.deliverResult(ResultUtils.createSuccessfulResult(latest));
+    }
+    return local;
+  }
+
+  /** Number of open upstream subscriptions. */
+  public synchronized int getUpstreamCount() {
+    int count = 0;
+    for (Channel<?> channel : mChannels.values()) {
+      if (channel.mUpstream != null) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  public synchronized int getListenerCount(Topic<?> topic) {
+    Channel<?> channel = mChannels.get(topic);
+    return channel != null ? channel.mListeners.size() : 0;
+  }
+
+  private synchronized AppRemote getAppRemote() {
+    return mAppRemote;
+  }
+
+  private synchronized <T> void remove(LocalSubscription<T> local) {
+    Channel<T> channel = local.mChannel;
+    channel.mListeners.remove(local);
+    if (channel.mListeners.isEmpty() && mChannels.get(channel.mTopic) == channel) {
+      // No listeners are left to tell about the stop.
+      channel.close();
+      mChannels.remove(channel.mTopic);
+    }
+  }
+
+  /** Closes every channel and collects the listeners that need to hear about the stop. */
+  private void closeAll(List<LocalSubscription<?>> stopped) {
+    for (Channel<?> channel : mChannels.values()) {
+      stopped.addAll(channel.close());
+    }
+  }
+
+  /** Called without the lock held, since a lifecycle callback may subscribe or cancel. */
+  private static void notifyStopped(List<LocalSubscription<?>> stopped) {
+    for (LocalSubscription<?> listener : stopped) {
+      listener.onUpstreamStop();
+    }
+  }
+
+  /** Subscription handed to a listener, cancelling it removes it from its channel. */
+  private static final class LocalSubscription<T> extends Subscription<T> {
+    final Channel<T> mChannel;
+    private volatile LifecycleCallback mLifecycleCallback;
+
+    LocalSubscription(Channel<T> channel, RemoteClient client) {
+      super(Types.RequestId.NONE, client);
+      mChannel = channel;
+    }
+
+    @Override
+    public Subscription<T> setLifecycleCallback(LifecycleCallback lifecycleCallback) {
+      mLifecycleCallback = lifecycleCallback;
+      if (lifecycleCallback != null && mChannel.mStarted) {
+        lifecycleCallback.onStart();
+      }
+      return super.setLifecycleCallback(lifecycleCallback);
+    }
+
+    void onUpstreamStart() {
+      LifecycleCallback lifecycleCallback = mLifecycleCallback;
+      if (lifecycleCallback != null) {
+        lifecycleCallback.onStart();
+      }
+    }
+
+    void onUpstreamStop() {
+      LifecycleCallback lifecycleCallback = mLifecycleCallback;
+      if (lifecycleCallback != null) {
+        lifecycleCallback.onStop();
+      }
+    }
+  }
+
+  /**
+   * {@link RemoteClient} of the local subscriptions. Unsubscribing removes a local subscription
+   * from its channel, calls and subscriptions go to the attached connection.
+   */
+  private final class LocalClient implements RemoteClient {
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <S> void unsubscribe(Subscription<S> subscription) {
+      remove((LocalSubscription<S>) subscription);
+    }
+
+    @Override
+    public <S> CallResult<S> hello(Class<S> type) {
+      // The attached connection has been through the handshake already.
+      return CallResults.failed(new IllegalStateException("Connection is already established"));
+    }
+
+    @Override
+    public void goodbye() {
+      detach();
+    }
+
+    @Override
+    public <S> CallResult<S> call(String uri, Class<S> type) {
+      return call(uri, null, type);
+    }
+
+    @Override
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public <S> CallResult<S> call(String uri, Object args, Class<S> type) {
+      AppRemote appRemote = getAppRemote();
+      if (appRemote == null) {
+        return CallResults.failed(new SpotifyDisconnectedException());
+      }
+      return appRemote.call(uri, (Item) args, (Class) type);
+    }
+
+    @Override
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public <S> Subscription<S> subscribe(String uri, Class<S> type) {
+      AppRemote appRemote = getAppRemote();
+      if (appRemote == null) {
+        Subscription<S> subscription = new Subscription<>(Types.RequestId.NONE, this);
+        subscription.deliverError(new SpotifyDisconnectedException());
+        return subscription;
+      }
+      return appRemote.subscribe(uri, (Class) type);
+    }
+  }
+
+  /** Upstream subscription and listeners of one topic. */
+  private final class Channel<T> {
+    final Topic<T> mTopic;
+    final List<LocalSubscription<T>> mListeners = new ArrayList<>();
+    Subscription<T> mUpstream;
+    T mLatest;
+    volatile boolean mStarted;
+
+    Channel(Topic<T> topic) {
+      mTopic = topic;
+    }
+
+    void open(AppRemote appRemote) {
+      Log.d(TAG, "Opening " + mTopic);
+      final Subscription<T> upstream = mTopic.mOpener.open(appRemote);
+      mUpstream = upstream;
+      upstream.setEventCallback(
+          AppRemoteMetrics.getInstance()
+              .trackEvents(mTopic.mName, data -> onEvent(upstream, data)));
+      upstream.setErrorCallback(error -> onError(upstream, error));
+      upstream.setLifecycleCallback(
+          new Subscription.LifecycleCallback() {
+            @Override
+            public void onStart() {
+              onLifecycle(upstream, true);
+            }
+
+            @Override
+            public void onStop() {
+              onLifecycle(upstream, false);
+            }
+          });
+    }
+
+    /**
+     * Closes the upstream subscription. Returns the listeners that saw it start and are to be told
+     * it stopped, once the lock is released.
+     */
+    List<LocalSubscription<T>> close() {
+      List<LocalSubscription<T>> stopped = new ArrayList<>();
+      if (mUpstream != null) {
+        Log.d(TAG, "Closing " + mTopic);
+        Subscription<T> upstream = mUpstream;
+        // Cleared first, so a stop delivered by cancel() is not forwarded twice.
+        mUpstream = null;
+        if (!upstream.isCanceled()) {
+          upstream.cancel();
+        }
+        if (mStarted) {
+          mStarted = false;
+          stopped.addAll(mListeners);
+        }
+      }
+      mLatest = null;
+      return stopped;
+    }
+
+    private void onLifecycle(Subscription<T> upstream, boolean started) {
+      List<LocalSubscription<T>> listeners;
+      synchronized (SubscriptionMultiplexer.this) {
+        if (upstream != mUpstream || started == mStarted) {
+          return;
+        }
+        mStarted = started;
+        listeners = new ArrayList<>(mListeners);
+      }
+      for (LocalSubscription<T> listener : listeners) {
+        if (started) {
+          listener.onUpstreamStart();
+        } else {
+          listener.onUpstreamStop();
+        }
+      }
+    }
+
+    private void onEvent(Subscription<T> upstream, T data) {
+      List<LocalSubscription<T>> listeners;
+      synchronized (SubscriptionMultiplexer.this) {
+        if (upstream != mUpstream) {
+          return;
+        }
+        mLatest = data;
+        listeners = new ArrayList<>(mListeners);
+      }
+      for (LocalSubscription<T> listener : listeners) {
+        listener.deliverResult(ResultUtils.createSuccessfulResult(data));
+      }
+    }
+
+    private void onError(Subscription<T> upstream, Throwable error) {
+      List<LocalSubscription<T>> listeners;
+      synchronized (SubscriptionMultiplexer.this) {
+        if (upstream != mUpstream) {
+          return;
+        }
+        // Listeners stay; the topic is opened again on the next attach or subscribe.
+        mUpstream = null;
+        mStarted = false;
+        listeners = new ArrayList<>(mListeners);
+      }
+      for (LocalSubscription<T> listener : listeners) {
+        listener.deliverError(error);
+      }
+    }
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.spotify.sdk.demo
+
+import com.spotify.protocol.client.CallResult
+import com.spotify.protocol.client.Subscription
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.channels.awaitClose
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.callbackFlow
+import kotlinx.coroutines.suspendCancellableCoroutine
+import kotlin.coroutines.resume
+import kotlin.coroutines.resumeWithException
+
+/**
+ * Suspends until the call completes and returns its result, or throws its error.
+ *
+ * Cancelling the coroutine cancels the call. Sets the result and error callbacks of this
+ * [CallResult], so do not set them yourself.
+ */
+suspend fun <T> CallResult<T>.await(): T = suspendCancellableCoroutine { continuation ->
+    setResultCallback { data -> continuation.resume(data) }
+    setErrorCallback { error -> continuation.resumeWithException(error) }
+    continuation.invokeOnCancellation { cancel() }
+}
+
+/**
+ * Emits the events of this subscription. The flow fails with the subscription's error, and the
+ * subscription is cancelled when collection stops.
+ *
+ * A [Subscription] can only be collected once. Use [SubscriptionMultiplexer.flow] for a flow that
+ * can be collected any number of times.
+ */
+@OptIn(ExperimentalCoroutinesApi::class)
+fun <T> Subscription<T>.asFlow(): Flow<T> = callbackFlow {
+    setEventCallback { data -> offer(data) }
+    setErrorCallback { error -> close(error) }
+    awaitClose { cancel() }
+}
+
+/** A cold flow of [topic]; every collector gets its own local subscription. */
+@OptIn(ExperimentalCoroutinesApi::class)
+fun <T> SubscriptionMultiplexer.flow(topic: SubscriptionMultiplexer.Topic<T>): Flow<T> =
+        callbackFlow {
+            val subscription = subscribe(topic)
+            subscription.setEventCallback { data -> offer(data) }
+            subscription.setErrorCallback { error -> close(error) }
+            awaitClose { subscription.cancel() }
+        }
@@ -38,8 +38,6 @@ import androidx.core.content.res.ResourcesCompat
 import androidx.core.graphics.drawable.DrawableCompat
 import androidx.lifecycle.lifecycleScope
 import com.google.gson.GsonBuilder
-import com.spotify.android.appremote.api.ConnectionParams
-import com.spotify.android.appremote.api.Connector
 import com.spotify.android.appremote.api.ContentApi
 import com.spotify.android.appremote.api.SpotifyAppRemote
 import com.spotify.android.appremote.api.error.SpotifyDisconnectedException
@@ -47,31 +45,21 @@ import com.spotify.android.appremote.demo.R
 import com.spotify.android.appremote.demo.databinding.AppRemoteLayoutBinding
 import com.spotify.protocol.client.Subscription
 import com.spotify.protocol.types.*
-import com.spotify.sdk.demo.RemotePlayerKotActivity.AuthParams.CLIENT_ID
-import com.spotify.sdk.demo.RemotePlayerKotActivity.AuthParams.REDIRECT_URI
 import com.spotify.sdk.demo.RemotePlayerKotActivity.SpotifySampleContexts.ALBUM_URI
 import com.spotify.sdk.demo.RemotePlayerKotActivity.SpotifySampleContexts.ARTIST_URI
 import com.spotify.sdk.demo.RemotePlayerKotActivity.SpotifySampleContexts.PLAYLIST_URI
 import com.spotify.sdk.demo.RemotePlayerKotActivity.SpotifySampleContexts.PODCAST_URI
 import com.spotify.sdk.demo.RemotePlayerKotActivity.SpotifySampleContexts.TRACK_URI
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.withTimeout
 import java.util.*
 import kotlin.collections.ArrayList
-import kotlin.coroutines.Continuation
-import kotlin.coroutines.resume
-import kotlin.coroutines.resumeWithException
-import kotlin.coroutines.suspendCoroutine
 
 @SuppressLint("Registered")
 @Suppress("UNUSED_PARAMETER")
 class RemotePlayerKotActivity : AppCompatActivity() {
 
 
-    object AuthParams {
-        const val CLIENT_ID = "089d841ccc194c10a77afad9e1c11d54"
-        const val REDIRECT_URI = "comspotifytestsdk://callback"
-    }
-
     object SpotifySampleContexts {
         const val TRACK_URI = "spotify:track:4IWZsfEkaK49itBwCTFDXQ"
         const val ALBUM_URI = "spotify:album:4m2880jivSbbyEGAKfITCa"
@@ -83,6 +71,7 @@ class RemotePlayerKotActivity : AppCompatActivity() {
     companion object {
         const val TAG = "App-Remote Sample"
         const val STEP_MS = 15000L
+        const val COLLECTION_STATE_TIMEOUT_MS = 5000L
     }
 
     private val gson = GsonBuilder().setPrettyPrinting().create()
@@ -92,12 +81,30 @@ class RemotePlayerKotActivity : AppCompatActivity() {
     private var capabilitiesSubscription: Subscription<Capabilities>? = null
     private var spotifyAppRemote: SpotifyAppRemote? = null
 
+    private val positionClock = PlaybackPositionClock()
+    private val seekCoalescer = SeekCoalescer()
+
     private lateinit var views: List<View>
     private lateinit var trackProgressBar: TrackProgressBar
     private lateinit var binding: AppRemoteLayoutBinding
 
     private val errorCallback = { throwable: Throwable -> logError(throwable) }
 
+    private val connectionListener = object : ConnectionSupervisor.Listener {
+        override fun onConnected(appRemote: SpotifyAppRemote) {
+            spotifyAppRemote = appRemote
+            this@RemotePlayerKotActivity.onConnected()
+        }
+
+        override fun onDisconnected(error: Throwable, reconnecting: Boolean) {
+            logError(error)
+            this@RemotePlayerKotActivity.onDisconnected()
+            if (reconnecting) {
+                onConnecting()
+            }
+        }
+    }
+
     private val playerContextEventCallback = Subscription.EventCallback<PlayerContext> { playerContext ->
         binding.currentContextLabel.apply {
             text = String.format(Locale.US, "%s\n%s", playerContext.title, playerContext.subtitle)
@@ -108,6 +115,8 @@ class RemotePlayerKotActivity : AppCompatActivity() {
     private val playerStateEventCallback = Subscription.EventCallback<PlayerState> { playerState ->
         Log.v(TAG, String.format("Player State: %s", gson.toJson(playerState)))
 
+        positionClock.update(playerState)
+
         updateShuffleButton(playerState)
 
         updateRepeatButton(playerState)
@@ -238,7 +247,7 @@ class RemotePlayerKotActivity : AppCompatActivity() {
             indeterminateDrawable.setColorFilter(Color.WHITE, PorterDuff.Mode.SRC_ATOP)
         }
 
-        trackProgressBar = TrackProgressBar(binding.seekTo) { seekToPosition: Long -> seekTo(seekToPosition) }
+        trackProgressBar = TrackProgressBar(binding.seekTo, positionClock) { seekToPosition: Long -> seekTo(seekToPosition) }
 
         views = listOf(
                 binding.disconnectButton,
@@ -273,15 +282,21 @@ class RemotePlayerKotActivity : AppCompatActivity() {
     }
 
     private fun seekTo(seekToPosition: Long) {
-        assertAppRemoteConnected()
-                .playerApi
-                .seekTo(seekToPosition)
+        seekCoalescer
+                .seekTo(assertAppRemoteConnected().playerApi, seekToPosition)
                 .setErrorCallback(errorCallback)
     }
 
+    override fun onStart() {
+        super.onStart()
+        AppRemoteHolder.get().acquire(connectionListener)
+    }
+
     override fun onStop() {
         super.onStop()
-        SpotifyAppRemote.disconnect(spotifyAppRemote)
+        cancelSubscriptions()
+        // The connection stays up for a while, so coming back to the app does not have to reconnect.
+        AppRemoteHolder.get().release(connectionListener)
         onDisconnected()
     }
 
@@ -358,40 +373,20 @@ class RemotePlayerKotActivity : AppCompatActivity() {
     }
 
     private fun connect(showAuthView: Boolean) {
+        AppRemoteHolder.get().connect(DemoApplication.connectionParams(showAuthView))
+    }
 
-        SpotifyAppRemote.disconnect(spotifyAppRemote)
-        lifecycleScope.launch {
-            try {
-                spotifyAppRemote = connectToAppRemote(showAuthView)
-                onConnected()
-            } catch (error: Throwable) {
-                onDisconnected()
-                logError(error)
+    private fun cancelSubscriptions() {
+        listOf(playerStateSubscription, playerContextSubscription, capabilitiesSubscription).forEach {
+            if (it != null && !it.isCanceled) {
+                it.cancel()
             }
         }
     }
 
-    private suspend fun connectToAppRemote(showAuthView: Boolean): SpotifyAppRemote? =
-            suspendCoroutine { cont: Continuation<SpotifyAppRemote> ->
-                SpotifyAppRemote.connect(
-                        application,
-                        ConnectionParams.Builder(CLIENT_ID)
-                                .setRedirectUri(REDIRECT_URI)
-                                .showAuthView(showAuthView)
-                                .build(),
-                        object : Connector.ConnectionListener {
-                            override fun onConnected(spotifyAppRemote: SpotifyAppRemote) {
-                                cont.resume(spotifyAppRemote)
-                            }
-
-                            override fun onFailure(error: Throwable) {
-                                cont.resumeWithException(error)
-                            }
-                        })
-            }
-
     fun onDisconnectClicked(notUsed: View) {
-        SpotifyAppRemote.disconnect(spotifyAppRemote)
+        cancelSubscriptions()
+        AppRemoteHolder.get().disconnect()
         onDisconnected()
     }
 
@@ -518,24 +513,20 @@ class RemotePlayerKotActivity : AppCompatActivity() {
     }
 
     fun onPlayPauseButtonClicked(notUsed: View) {
-        assertAppRemoteConnected().let {
-            it.playerApi
-                    .playerState
-                    .setResultCallback { playerState ->
-                        if (playerState.isPaused) {
-                            it.playerApi
-                                    .resume()
-                                    .setResultCallback { logMessage(getString(R.string.command_feedback, "play")) }
-                                    .setErrorCallback(errorCallback)
-                        } else {
-                            it.playerApi
-                                    .pause()
-                                    .setResultCallback { logMessage(getString(R.string.command_feedback, "pause")) }
-                                    .setErrorCallback(errorCallback)
-                        }
-                    }
+        val playerApi = assertAppRemoteConnected().playerApi
+        lifecycleScope.launch {
+            try {
+                if (playerApi.playerState.await().isPaused) {
+                    playerApi.resume().await()
+                    logMessage(getString(R.string.command_feedback, "play"))
+                } else {
+                    playerApi.pause().await()
+                    logMessage(getString(R.string.command_feedback, "pause"))
+                }
+            } catch (error: Throwable) {
+                logError(error)
+            }
         }
-
     }
 
     fun onSkipNextButtonClicked(notUsed: View) {
@@ -547,17 +538,15 @@ class RemotePlayerKotActivity : AppCompatActivity() {
     }
 
     fun onSeekBack(notUsed: View) {
-        assertAppRemoteConnected()
-                .playerApi
-                .seekToRelativePosition(-STEP_MS)
+        seekCoalescer
+                .seekToRelativePosition(assertAppRemoteConnected().playerApi, -STEP_MS)
                 .setResultCallback { logMessage(getString(R.string.command_feedback, "seek back")) }
                 .setErrorCallback(errorCallback)
     }
 
     fun onSeekForward(notUsed: View) {
-        assertAppRemoteConnected()
-                .playerApi
-                .seekToRelativePosition(STEP_MS)
+        seekCoalescer
+                .seekToRelativePosition(assertAppRemoteConnected().playerApi, STEP_MS)
                 .setResultCallback { logMessage(getString(R.string.command_feedback, "seek fwd")) }
                 .setErrorCallback(errorCallback)
     }
@@ -581,13 +570,18 @@ class RemotePlayerKotActivity : AppCompatActivity() {
     }
 
     fun onGetCollectionStateClicked(notUsed: View) {
-        assertAppRemoteConnected()
-                .userApi
-                .getLibraryState(TRACK_URI)
-                .setResultCallback { libraryState ->
-                    showDialog(getString(R.string.command_response, getString(R.string.get_collection_state)), gson.toJson(libraryState))
+        val userApi = assertAppRemoteConnected().userApi
+        lifecycleScope.launch {
+            try {
+                // The call is cancelled if it takes longer than this.
+                val libraryState = withTimeout(COLLECTION_STATE_TIMEOUT_MS) {
+                    userApi.getLibraryState(TRACK_URI).await()
                 }
-                .setErrorCallback { throwable -> logError(throwable) }
+                showDialog(getString(R.string.command_response, getString(R.string.get_collection_state)), gson.toJson(libraryState))
+            } catch (error: Throwable) {
+                logError(error)
+            }
+        }
     }
 
     fun onRemoveUriClicked(notUsed: View) {
@@ -607,57 +601,28 @@ class RemotePlayerKotActivity : AppCompatActivity() {
     }
 
     fun onGetFitnessRecommendedContentItemsClicked(notUsed: View) {
-        assertAppRemoteConnected().let {
-            lifecycleScope.launch {
-                val combined = ArrayList<ListItem>(50)
-                val listItems = loadRootRecommendations(it)
-                listItems?.apply {
-                    for (i in items.indices) {
-                        if (items[i].playable) {
-                            combined.add(items[i])
-                        } else {
-                            val children: ListItems? = loadChildren(it, items[i])
-                            combined.addAll(convertToList(children))
-                        }
+        val combined = ArrayList<ListItem>(50)
+        ContentTreeWalker.Builder(assertAppRemoteConnected().contentApi)
+                .setMaxDepth(1)
+                .setPageSize(6)
+                .build()
+                .walk(ContentApi.ContentType.FITNESS, object : ContentTreeWalker.Listener {
+                    override fun onPage(parent: ListItem?, page: ListItems, depth: Int) {
+                        // Browsable root items are replaced by their children
+                        combined.addAll(page.items.filter { parent != null || it.playable })
                     }
-                }
-                showDialog(
-                        getString(R.string.command_response, getString(R.string.browse_content)),
-                        gson.toJson(combined))
-            }
-        }
-    }
-
-    private fun convertToList(inputItems: ListItems?): List<ListItem> {
-        return if (inputItems?.items != null) {
-            inputItems.items.toList()
-        } else {
-            emptyList()
-        }
-    }
 
-    private suspend fun loadRootRecommendations(appRemote: SpotifyAppRemote): ListItems? =
-            suspendCoroutine { cont ->
-                appRemote.contentApi
-                        .getRecommendedContentItems(ContentApi.ContentType.FITNESS)
-                        .setResultCallback { listItems -> cont.resume(listItems) }
-                        .setErrorCallback { throwable ->
-                            errorCallback.invoke(throwable)
-                            cont.resumeWithException(throwable)
-                        }
-            }
-
-    private suspend fun loadChildren(appRemote: SpotifyAppRemote, parent: ListItem): ListItems? =
-            suspendCoroutine { cont ->
-                appRemote.contentApi
-                        .getChildrenOfItem(parent, 6, 0)
-                        .setResultCallback { listItems -> cont.resume(listItems) }
-                        .setErrorCallback { throwable ->
-                            errorCallback.invoke(throwable)
-                            cont.resumeWithException(throwable)
-                        }
-            }
+                    override fun onError(parent: ListItem?, error: Throwable) {
+                        errorCallback.invoke(error)
+                    }
 
+                    override fun onComplete() {
+                        showDialog(
+                                getString(R.string.command_response, getString(R.string.browse_content)),
+                                gson.toJson(combined))
+                    }
+                })
+    }
 
     fun onConnectSwitchToLocalClicked(notUsed: View) {
         assertAppRemoteConnected()
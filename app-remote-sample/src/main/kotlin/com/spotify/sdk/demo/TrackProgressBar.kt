@@ -3,7 +3,10 @@ package com.spotify.sdk.demo
 import android.os.Handler
 import android.widget.SeekBar
 
-class TrackProgressBar(private val seekBar: SeekBar, private val seekStopListener: (Long) -> Unit) {
+class TrackProgressBar(
+        private val seekBar: SeekBar,
+        private val positionClock: PlaybackPositionClock,
+        private val seekStopListener: (Long) -> Unit) {
     private val handler: Handler
 
     private val seekBarChangeListener = object : SeekBar.OnSeekBarChangeListener {
@@ -23,8 +26,7 @@ class TrackProgressBar(private val seekBar: SeekBar, private val seekStopListene
 
     private val seekUpdateRunnable = object : Runnable {
         override fun run() {
-            val progress = seekBar.progress
-            seekBar.progress = progress + LOOP_DURATION
+            seekBar.progress = positionClock.position.toInt()
             handler.postDelayed(this, LOOP_DURATION.toLong())
         }
     }